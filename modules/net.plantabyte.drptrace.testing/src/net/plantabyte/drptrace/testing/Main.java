@@ -20,6 +20,8 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
 
 public class Main {
@@ -39,9 +41,136 @@ public class Main {
 		test5();
 		test6();
 		test7();
+		test8();
+		test9();
+		test10();
+		test11();
 		System.exit(0);
 	}
 
+	private static void test9() {
+		print("Test 9");
+		// tiled tracing must give the same shapes as tracing the whole raster
+		var random = new Random(9);
+		for(int trial = 0; trial < 100; trial++){
+			var raster = randomRaster(random, 10 + random.nextInt(40), 10 + random.nextInt(40));
+			var tracer = new IntervalTracer(5);
+			tracer.setStraightRunLength(trial % 2 == 0 ? 0 : 4);
+			var expected = describe(tracer.traceAllShapes(raster));
+			for(int tileSize : new int[]{1, 3, 8, 16, 64}){
+				var tiled = new TiledTracer(tracer, tileSize);
+				if(!describe(tiled.traceAllShapes(raster)).equals(expected)){
+					throw new IllegalStateException(String.format(
+							"Trial %d: tiles of %d pixels traced differently", trial, tileSize));
+				}
+				if(!describe(tiled.traceAllShapes(raster, ForkJoinPool.commonPool())).equals(expected)){
+					throw new IllegalStateException(String.format(
+							"Trial %d: tiles of %d pixels traced differently in parallel", trial, tileSize));
+				}
+			}
+		}
+		print("...tiled traces match");
+	}
+
+	private static void test10() {
+		print("Test 10");
+		// after each random edit, the session must hold the same shapes as a full trace
+		var random = new Random(10);
+		for(int trial = 0; trial < 50; trial++){
+			int w = 10 + random.nextInt(40), h = 10 + random.nextInt(40);
+			var raster = randomRaster(random, w, h);
+			var fitter = new IntervalTracer(5);
+			fitter.setStraightRunLength(trial % 2 == 0 ? 0 : 4);
+			// wrappers that return the shapes of the wrapped tracer are supported too
+			Tracer tracer = trial % 3 == 0 ? fitter : trial % 3 == 1 ? new CachingTracer(fitter, 4) : new TiledTracer(fitter, 8);
+			var session = new TraceSession(tracer, raster);
+			for(int edit = 0; edit < 20; edit++){
+				int x0 = random.nextInt(w), y0 = random.nextInt(h);
+				int ew = 1 + random.nextInt(Math.min(8, w - x0)), eh = 1 + random.nextInt(Math.min(8, h - y0));
+				int color = random.nextInt(4);
+				for(int y = y0; y < y0 + eh; y++){
+					for(int x = x0; x < x0 + ew; x++){
+						// leave some pixels of the rectangle unchanged
+						if(random.nextInt(3) > 0) raster.set(x, y, color);
+					}
+				}
+				var updated = describe(session.update(x0, y0, ew, eh));
+				if(!updated.equals(describe(tracer.traceAllShapes(raster)))){
+					throw new IllegalStateException(String.format(
+							"Trial %d, edit %d: update of %dx%d at (%d, %d) differs from a full trace",
+							trial, edit, ew, eh, x0, y0));
+				}
+			}
+		}
+		try {
+			new TraceSession(new CachingTracer(new TopologyTracer(new IntervalTracer(5)), 4), randomRaster(random, 10, 10));
+			throw new IllegalStateException("A session was created for a TopologyTracer");
+		} catch(IllegalArgumentException expected){
+			// its shapes are not fitted per outline
+		}
+		print("...incremental traces match");
+	}
+
+	private static void test11() {
+		print("Test 11");
+		// a frozen raster is swept in bands on the executor, which must find
+		// the same outlines as labeling it on the calling thread
+		var random = new Random(11);
+		for(int trial = 0; trial < 60; trial++){
+			int w = 10 + random.nextInt(60), h = 10 + random.nextInt(trial % 3 == 0 ? 300 : 60);
+			var raster = randomRaster(random, w, h);
+			for(int n = w * h / 10; n > 0; n--){
+				raster.set(random.nextInt(w), random.nextInt(h), random.nextInt(4));
+			}
+			var tracer = new IntervalTracer(5);
+			tracer.setMinimumArea(trial % 2 == 0 ? 0 : 3);
+			var expected = describe(tracer.traceAllShapes(raster));
+			var frozen = raster.clone().freeze();
+			if(!describe(tracer.traceAllShapes(frozen, ForkJoinPool.commonPool())).equals(expected)){
+				throw new IllegalStateException(String.format(
+						"Trial %d: banded trace of a frozen %dx%d raster differs from a plain trace", trial, w, h));
+			}
+		}
+		print("...banded traces match");
+	}
+
+	/** raster of a few colored rectangles painted over each other */
+	private static LinearIntMap randomRaster(Random random, int w, int h) {
+		var raster = new LinearIntMap(w, h);
+		for(int n = 0; n < 20; n++){
+			int x0 = random.nextInt(w), y0 = random.nextInt(h);
+			int x1 = Math.min(w, x0 + 1 + random.nextInt(w / 2)), y1 = Math.min(h, y0 + 1 + random.nextInt(h / 2));
+			int color = random.nextInt(4);
+			for(int y = y0; y < y1; y++){
+				for(int x = x0; x < x1; x++){
+					raster.set(x, y, color);
+				}
+			}
+		}
+		return raster;
+	}
+
+	private static List<String> describe(List<BezierShape> shapes) {
+		return shapes.stream().map(s -> s.getColor() + ":" + s.toSVGPathString()).collect(Collectors.toList());
+	}
+
+	private static void test8() {
+		print("Test 8");
+		// every gray level must read the same as BufferedImage.getRGB(x, y)
+		var bimg = new BufferedImage(256, 1, BufferedImage.TYPE_BYTE_GRAY);
+		for(int v = 0; v < 256; v++){
+			bimg.getRaster().setSample(v, 0, 0, v);
+		}
+		var map = new BufferedImageIntMap(bimg);
+		for(int v = 0; v < 256; v++){
+			if(map.get(v, 0) != bimg.getRGB(v, 0)){
+				throw new IllegalStateException(String.format(
+						"Gray level %d read as %08x instead of %08x", v, map.get(v, 0), bimg.getRGB(v, 0)));
+			}
+		}
+		print("...all 256 gray levels match");
+	}
+
 
 	private static void test7() {
 		print("Test 7");
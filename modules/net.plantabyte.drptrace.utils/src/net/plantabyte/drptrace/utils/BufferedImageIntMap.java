@@ -27,13 +27,39 @@ import net.plantabyte.drptrace.IntMap;
 import net.plantabyte.drptrace.intmaps.ZOrderIntMap;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.awt.image.SinglePixelPackedSampleModel;
 
 /**
  * This is a lightweight <code>IntMap</code> wrapper for AWT buffered images.
+ * For images of type <code>TYPE_INT_ARGB</code>, <code>TYPE_INT_RGB</code>,
+ * <code>TYPE_BYTE_GRAY</code> and <code>TYPE_BYTE_INDEXED</code>, the pixels are
+ * read directly from the image's data array instead of through
+ * <code>BufferedImage.getRGB(x, y)</code>, which converts every pixel through
+ * the color model. Byte pixels are converted once per possible value through
+ * the same color model call that <code>getRGB(x, y)</code> makes, so the values
+ * are the same either way.
  */
 public class BufferedImageIntMap extends IntMap {
 	
 	private final BufferedImage bimg;
+	private final int width;
+	private final int height;
+	/** pixel data of INT images, or null */
+	private final int[] ints;
+	/** OR-ed into each INT pixel (opaque alpha for images without alpha) */
+	private final int alpha;
+	/** pixel data of BYTE images, or null */
+	private final byte[] bytes;
+	/** ARGB value of each BYTE pixel value */
+	private final int[] lut;
+	/** index of pixel (0,0) in the data array */
+	private final int offset;
+	/** distance between rows in the data array */
+	private final int stride;
 	
 	/**
 	 * Constructs an <code>IntMap</code> wrapper for the given
@@ -44,6 +70,50 @@ public class BufferedImageIntMap extends IntMap {
 	 */
 	public BufferedImageIntMap(BufferedImage img){
 		this.bimg = img;
+		this.width = img.getWidth();
+		this.height = img.getHeight();
+		final var raster = img.getRaster();
+		final var buffer = raster.getDataBuffer();
+		final var model = raster.getSampleModel();
+		// pixel (0,0) of a sub-image is not necessarily the start of the buffer
+		final int tx = -raster.getSampleModelTranslateX(), ty = -raster.getSampleModelTranslateY();
+		final int type = img.getType();
+		if((type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_INT_RGB)
+				&& buffer instanceof DataBufferInt && buffer.getNumBanks() == 1
+				&& model instanceof SinglePixelPackedSampleModel){
+			final var packed = (SinglePixelPackedSampleModel) model;
+			this.ints = ((DataBufferInt) buffer).getData();
+			this.alpha = type == BufferedImage.TYPE_INT_RGB ? 0xFF000000 : 0;
+			this.bytes = null;
+			this.lut = null;
+			this.stride = packed.getScanlineStride();
+			this.offset = buffer.getOffset() + ty * stride + tx;
+		} else if((type == BufferedImage.TYPE_BYTE_GRAY || type == BufferedImage.TYPE_BYTE_INDEXED)
+				&& buffer instanceof DataBufferByte && buffer.getNumBanks() == 1
+				&& model instanceof ComponentSampleModel && ((ComponentSampleModel) model).getPixelStride() == 1){
+			final var component = (ComponentSampleModel) model;
+			this.ints = null;
+			this.alpha = 0;
+			this.bytes = ((DataBufferByte) buffer).getData();
+			// same conversion as getRGB(x, y), which passes the raster's pixel array
+			// to the color model (for gray images, getRGB(int) rounds differently)
+			this.lut = new int[256];
+			final var colors = img.getColorModel();
+			final int mapSize = type == BufferedImage.TYPE_BYTE_INDEXED
+					? ((IndexColorModel) colors).getMapSize() : 256;
+			for(int v = 0; v < Math.min(256, mapSize); v++){
+				lut[v] = colors.getRGB(new byte[]{(byte) v});
+			}
+			this.stride = component.getScanlineStride();
+			this.offset = buffer.getOffset() + component.getBandOffsets()[0] + ty * stride + tx;
+		} else {
+			this.ints = null;
+			this.alpha = 0;
+			this.bytes = null;
+			this.lut = null;
+			this.stride = 0;
+			this.offset = 0;
+		}
 	}
 	
 	/**
@@ -57,16 +127,58 @@ public class BufferedImageIntMap extends IntMap {
 	@Override
 	public int get(final int x, final int y)
 			throws ArrayIndexOutOfBoundsException {
+		if(x < 0 || y < 0 || x >= width || y >= height){
+			throw new ArrayIndexOutOfBoundsException(String.format("(%s, %s) is out of bounds of %sx%s image", x, y, width, height));
+		}
+		if(ints != null) return ints[offset + y * stride + x] | alpha;
+		if(bytes != null) return lut[bytes[offset + y * stride + x] & 0xFF];
 		return bimg.getRGB(x, y);
 	}
 	
+	/**
+	 * Copies the ARGB color values of a rectangular area of the image into an
+	 * array, in row order, such that the value at (x+i, y+j) is stored at
+	 * <code>dst[offset + j*stride + i]</code>.
+	 * @param x X coordinate of the first column of the area
+	 * @param y Y coordinate of the first row of the area
+	 * @param width width of the area
+	 * @param height height of the area
+	 * @param dst destination array
+	 * @param offset index in <code>dst</code> of the value at (x,y)
+	 * @param stride distance in <code>dst</code> between consecutive rows
+	 * @throws ArrayIndexOutOfBoundsException thrown if the area is not inside
+	 * the bounds of this <code>IntMap</code>, or <code>dst</code> is too small
+	 */
+	@Override
+	public void getRegion(final int x, final int y, final int width, final int height,
+			final int[] dst, final int offset, final int stride) throws ArrayIndexOutOfBoundsException {
+		checkRegion(x, y, width, height);
+		if(ints != null){
+			for(int j = 0; j < height; j++){
+				final int src = this.offset + (y + j) * this.stride + x, row = offset + j * stride;
+				for(int i = 0; i < width; i++){
+					dst[row + i] = ints[src + i] | alpha;
+				}
+			}
+		} else if(bytes != null){
+			for(int j = 0; j < height; j++){
+				final int src = this.offset + (y + j) * this.stride + x, row = offset + j * stride;
+				for(int i = 0; i < width; i++){
+					dst[row + i] = lut[bytes[src + i] & 0xFF];
+				}
+			}
+		} else {
+			bimg.getRGB(x, y, width, height, dst, offset, stride);
+		}
+	}
+	
 	/**
 	 * Gets the width of the image
 	 * @return The width of this <code>IntMap</code>
 	 */
 	@Override
 	public int getWidth() {
-		return bimg.getWidth();
+		return width;
 	}
 	
 	/**
@@ -75,7 +187,7 @@ public class BufferedImageIntMap extends IntMap {
 	 */
 	@Override
 	public int getHeight() {
-		return bimg.getHeight();
+		return height;
 	}
 	
 	/**
@@ -87,11 +199,12 @@ public class BufferedImageIntMap extends IntMap {
 	 */
 	@Override
 	public IntMap clone() {
-		ZOrderIntMap out = new ZOrderIntMap(bimg.getWidth(), bimg.getHeight());
-		for(int y = 0; y < bimg.getHeight(); y++){
-			for(int x = 0; x < bimg.getWidth(); x++){
-				out.set(x, y, bimg.getRGB(x, y));
-			}
+		final int w = width, h = height;
+		ZOrderIntMap out = new ZOrderIntMap(w, h);
+		final int[] row = new int[w];
+		for(int y = 0; y < h; y++){
+			getRegion(0, y, w, 1, row, 0, w);
+			out.setRegion(0, y, w, 1, row, 0, w);
 		}
 		return out;
 	}
@@ -26,6 +26,7 @@ package net.plantabyte.drptrace.utils;
 import imagemagick.Quantize;
 import net.plantabyte.drptrace.*;
 import net.plantabyte.drptrace.geometry.BezierShape;
+import net.plantabyte.drptrace.intmaps.PaletteIntMap;
 import net.plantabyte.drptrace.intmaps.ZOrderIntMap;
 
 import java.awt.image.BufferedImage;
@@ -54,19 +55,28 @@ public class ImageTracer {
 			) {
 		int[][] imgMatrix = new int[img.getHeight()][img.getWidth()];
 		for(int y = 0; y < img.getHeight(); y++){
-			for(int x = 0; x < img.getWidth(); x++){
-				imgMatrix[y][x] = img.getRGB(x, y);
-			}
+			img.getRGB(0, y, img.getWidth(), 1, imgMatrix[y], 0, img.getWidth());
 		}
+		IntervalTracer t = new IntervalTracer(smoothness);
 		if(numColors > 0) {
 			var palette = Quantize.quantizeImage(imgMatrix, numColors);
+			if(palette.length <= PaletteIntMap.MAX_PALETTE_SIZE){
+				// store 16-bit palette indices instead of the ARGB values, letting go
+				// of each row of the matrix as soon as it has been copied
+				var indexed = new PaletteIntMap(img.getWidth(), img.getHeight(), palette);
+				for(int y = 0; y < img.getHeight(); y++){
+					indexed.setIndexRegion(0, y, img.getWidth(), 1, imgMatrix[y], 0, img.getWidth());
+					imgMatrix[y] = null;
+				}
+				imgMatrix = null;
+				return t.traceAllShapes(indexed);
+			}
 			for(int y = 0; y < img.getHeight(); y++){
 				for(int x = 0; x < img.getWidth(); x++){
 					imgMatrix[y][x] = palette[imgMatrix[y][x]];
 				}
 			}
 		}
-		IntervalTracer t = new IntervalTracer(smoothness);
 		return t.traceAllShapes(ZOrderIntMap.fromMatrix(imgMatrix));
 	}
 	/**
@@ -92,9 +92,10 @@ public class SVGWriter {
 				String hexColor = intToHexColor(color);
 				var path = doc.createElement("path");
 				path.setAttribute("id", String.format("path%s", ++id));
+				final String fillRule = s.getFillRule() == BezierShape.FillRule.EVEN_ODD ? "fill-rule:evenodd;" : "";
 				path.setAttribute("style", String.format(
-						"fill:%s;stroke-width:1;stroke-linecap:round;stroke:%s;stroke-opacity:1",
-						hexColor, hexColor
+						"fill:%s;%sstroke-width:1;stroke-linecap:round;stroke:%s;stroke-opacity:1",
+						hexColor, fillRule, hexColor
 				));
 				path.setAttribute("d", svgPathString(s));
 				group.appendChild(path);
@@ -0,0 +1,442 @@
+package net.plantabyte.drptrace;
+
+import net.plantabyte.drptrace.geometry.BezierCurve;
+import net.plantabyte.drptrace.geometry.BezierShape;
+import net.plantabyte.drptrace.geometry.Vec2;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * The <code>CachingTracer</code> remembers the shapes traced from each raster,
+ * so that tracing the same raster again with the same settings costs no more
+ * than hashing its pixels. The cache key is a 128-bit hash of the raster size,
+ * the raster contents and the settings of the wrapped <code>Tracer</code> (see
+ * <code>Tracer.getSettingsKey()</code>).
+ * <p>
+ * Recently used results are kept in memory, up to the given number of
+ * entries. If a directory is given, every result is also written there and
+ * read back when it is no longer in memory, so the cache can outlive the
+ * process and be shared by several processes. The disk store is best-effort:
+ * files which cannot be read or written are treated as cache misses.
+ * </p>
+ * The settings (<code>setTraceHoles(boolean)</code> and so on) are those of
+ * the wrapped <code>Tracer</code>, so setting them on either one has the same
+ * effect.
+ * <p>
+ * The hash is fast but not cryptographic, so it does not protect against
+ * rasters deliberately crafted to collide. The shapes returned on a hit are
+ * copies, so callers may modify them. Example:
+ * <code>new CachingTracer(new IntervalTracer(10), 1000)</code>
+ * </p>
+ */
+public class CachingTracer extends Tracer {
+	/** file format identifier, followed by the version number */
+	private static final int FILE_MAGIC = 0x44525043; // "DRPC"
+	private static final int FILE_VERSION = 1;
+	/** smallest number of bytes a shape and a bezier curve take in a file */
+	private static final int SHAPE_BYTES = 14, CURVE_BYTES = 64;
+
+	private final Tracer tracer;
+	private final Path directory;
+	private final Map<Key, List<BezierShape>> memory;
+
+	/**
+	 * Constructs a new <code>CachingTracer</code> which only caches in memory
+	 * @param tracer The <code>Tracer</code> which traces the rasters that are
+	 *               not in the cache
+	 * @param maxEntries The maximum number of traced rasters to keep in memory
+	 * @throws IllegalArgumentException Thrown if <code>maxEntries</code> is
+	 * negative
+	 */
+	public CachingTracer(Tracer tracer, int maxEntries){
+		this(tracer, maxEntries, null);
+	}
+
+	/**
+	 * Constructs a new <code>CachingTracer</code> which caches in memory and in
+	 * files in the given directory
+	 * @param tracer The <code>Tracer</code> which traces the rasters that are
+	 *               not in the cache
+	 * @param maxEntries The maximum number of traced rasters to keep in memory
+	 *                   (the number of files is not limited)
+	 * @param directory The directory to store the traced shapes in (created if
+	 *                  it does not exist), or <code>null</code> to cache in
+	 *                  memory only
+	 * @throws IllegalArgumentException Thrown if <code>maxEntries</code> is
+	 * negative
+	 */
+	public CachingTracer(Tracer tracer, int maxEntries, Path directory){
+		if(maxEntries < 0) throw new IllegalArgumentException(String.format("Invalid cache size: %s (must not be negative)", maxEntries));
+		this.tracer = tracer;
+		this.directory = directory;
+		this.memory = new LinkedHashMap<>(16, 0.75f, true){
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, List<BezierShape>> eldest){
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Traces a series of points as a sequence of bezier curves using the
+	 * wrapped <code>Tracer</code> (paths are not cached).
+	 * @param pathPoints A series of points to trace with bezier curves.
+	 * @param closedLoop If true, traceback to the starting point (index 0);
+	 *                   if false, trace to the final point
+	 * @return Returns a list of <code>BezierCurve</code>s tracing the path of
+	 * the points
+	 * @throws IllegalArgumentException Thrown if any of the input arguments are
+	 * invalid (eg too few points)
+	 */
+	@Override
+	public BezierShape tracePath(final Vec2[] pathPoints, final boolean closedLoop)
+			throws IllegalArgumentException {
+		return tracer.tracePath(pathPoints, closedLoop);
+	}
+
+	/**
+	 * Sets whether the wrapped <code>Tracer</code> traces holes
+	 * @param traceHoles <code>true</code> to trace holes
+	 * @see Tracer#setTraceHoles(boolean)
+	 */
+	@Override
+	public void setTraceHoles(boolean traceHoles){
+		tracer.setTraceHoles(traceHoles);
+	}
+
+	/**
+	 * Returns whether the wrapped <code>Tracer</code> traces holes
+	 * @return <code>true</code> if holes are traced
+	 */
+	@Override
+	public boolean getTraceHoles(){
+		return tracer.getTraceHoles();
+	}
+
+	/**
+	 * Sets the minimum patch area of the wrapped <code>Tracer</code>
+	 * @param minimumArea minimum number of pixels per patch (0 or 1 to disable)
+	 * @throws IllegalArgumentException Thrown if <code>minimumArea</code> is
+	 * negative
+	 * @see Tracer#setMinimumArea(int)
+	 */
+	@Override
+	public void setMinimumArea(int minimumArea) throws IllegalArgumentException {
+		tracer.setMinimumArea(minimumArea);
+	}
+
+	/**
+	 * Returns the minimum patch area of the wrapped <code>Tracer</code>
+	 * @return minimum number of pixels per patch
+	 */
+	@Override
+	public int getMinimumArea(){
+		return tracer.getMinimumArea();
+	}
+
+	/**
+	 * Sets the straight run length of the wrapped <code>Tracer</code>
+	 * @param straightRunLength minimum number of pixel edges in a straight line
+	 *                          (at least 2), or 0 to disable
+	 * @throws IllegalArgumentException Thrown if <code>straightRunLength</code>
+	 * is negative or 1
+	 * @see Tracer#setStraightRunLength(int)
+	 */
+	@Override
+	public void setStraightRunLength(int straightRunLength) throws IllegalArgumentException {
+		tracer.setStraightRunLength(straightRunLength);
+	}
+
+	/**
+	 * Returns the straight run length of the wrapped <code>Tracer</code>
+	 * @return minimum number of pixel edges, or 0 if disabled
+	 */
+	@Override
+	public int getStraightRunLength(){
+		return tracer.getStraightRunLength();
+	}
+
+	/**
+	 * Describes the settings of the wrapped <code>Tracer</code>, since the
+	 * cache does not change the traced shapes
+	 * @return A string identifying the wrapped tracer class and its settings
+	 */
+	@Override
+	public String getSettingsKey(){
+		return tracer.getSettingsKey();
+	}
+
+	/** the cached shapes are those of the wrapped <code>Tracer</code> */
+	@Override
+	Tracer outlineFitter(){
+		return tracer.outlineFitter();
+	}
+
+	/**
+	 * Traces every shape (including the background) of the provided raster
+	 * bitmap, or gets them from the cache if this raster has been traced before.
+	 * @param bitmap A 2D array of integer values, such that each contiguous area
+	 *               of a number is considered to be a single shape.
+	 * @param context The context of this trace
+	 * @param consumer Receives each shape, in back-to-front order
+	 * @throws IllegalArgumentException Thrown if any of the input arguments are
+	 * invalid (eg too few points to trace)
+	 * @throws CancellationException Thrown if the context was cancelled or its
+	 * deadline passed before the trace was finished
+	 */
+	@Override
+	public void traceEachShape(final IntMap bitmap, final TraceContext context, final Consumer<BezierShape> consumer)
+			throws IllegalArgumentException, CancellationException {
+		traceCached(bitmap, null, context, consumer);
+	}
+
+	/**
+	 * Traces every shape (including the background) of the provided raster
+	 * bitmap with the given <code>Executor</code>, or gets them from the cache
+	 * if this raster has been traced before.
+	 * @param bitmap A 2D array of integer values, such that each contiguous area
+	 *               of a number is considered to be a single shape.
+	 * @param executor The executor which will run the curve fitting tasks on a
+	 *                 cache miss (eg <code>ForkJoinPool.commonPool()</code>)
+	 * @param context The context of this trace
+	 * @param consumer Receives each shape, in back-to-front order
+	 * @throws IllegalArgumentException Thrown if any of the input arguments are
+	 * invalid (eg too few points to trace)
+	 * @throws CancellationException Thrown if the context was cancelled or its
+	 * deadline passed before the trace was finished
+	 */
+	@Override
+	public void traceEachShape(final IntMap bitmap, final Executor executor, final TraceContext context,
+			final Consumer<BezierShape> consumer) throws IllegalArgumentException, CancellationException {
+		traceCached(bitmap, executor, context, consumer);
+	}
+
+	/**
+	 * Removes every entry from the in-memory cache (files in the cache
+	 * directory are kept)
+	 */
+	public void clearMemory(){
+		synchronized(memory){
+			memory.clear();
+		}
+	}
+
+	private void traceCached(final IntMap bitmap, final Executor executor, final TraceContext context,
+			final Consumer<BezierShape> consumer){
+		final Key key = hash(bitmap, tracer.getSettingsKey());
+		final List<BezierShape> cached = lookup(key);
+		if(cached != null){
+			final long totalPixels = (long) bitmap.getWidth() * bitmap.getHeight();
+			for(int i = 0; i < cached.size(); i++){
+				context.checkpoint();
+				consumer.accept(cached.get(i).clone());
+				context.progress(totalPixels, totalPixels, i + 1, cached.size());
+			}
+			return;
+		}
+		final var traced = new ArrayList<BezierShape>();
+		final Consumer<BezierShape> recorder = shape -> {
+			traced.add(shape.clone());
+			consumer.accept(shape);
+		};
+		if(executor == null){
+			tracer.traceEachShape(bitmap, context, recorder);
+		} else {
+			tracer.traceEachShape(bitmap, executor, context, recorder);
+		}
+		store(key, traced);
+	}
+
+	private List<BezierShape> lookup(final Key key){
+		synchronized(memory){
+			final var shapes = memory.get(key);
+			if(shapes != null) return shapes;
+		}
+		if(directory == null) return null;
+		final Path file = directory.resolve(key.toFileName());
+		if(!Files.isRegularFile(file)) return null;
+		final List<BezierShape> shapes;
+		try(var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))){
+			shapes = readShapes(in, Files.size(file));
+		} catch(IOException | RuntimeException e){
+			// unreadable or corrupt, so trace again (and overwrite it)
+			return null;
+		}
+		synchronized(memory){
+			memory.put(key, shapes);
+		}
+		return shapes;
+	}
+
+	private void store(final Key key, final List<BezierShape> shapes){
+		synchronized(memory){
+			memory.put(key, shapes);
+		}
+		if(directory == null) return;
+		try {
+			Files.createDirectories(directory);
+			// write to a temporary file first, so that no other process can read
+			// a partially written file
+			final Path temp = Files.createTempFile(directory, key.toFileName(), ".tmp");
+			try {
+				try(var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))){
+					writeShapes(out, shapes);
+				}
+				Files.move(temp, directory.resolve(key.toFileName()), StandardCopyOption.REPLACE_EXISTING);
+			} finally {
+				Files.deleteIfExists(temp);
+			}
+		} catch(IOException e){
+			// the disk store is best-effort; the result is still cached in memory
+		}
+	}
+
+	private static void writeShapes(final DataOutputStream out, final List<BezierShape> shapes) throws IOException {
+		out.writeInt(FILE_MAGIC);
+		out.writeInt(FILE_VERSION);
+		out.writeInt(shapes.size());
+		for(var shape : shapes){
+			writeShape(out, shape);
+		}
+	}
+
+	private static void writeShape(final DataOutputStream out, final BezierShape shape) throws IOException {
+		out.writeInt(shape.getColor());
+		out.writeBoolean(shape.isClosed());
+		out.writeByte(shape.getFillRule().ordinal());
+		out.writeInt(shape.size());
+		for(var b : shape){
+			for(var p : new Vec2[]{b.getP1(), b.getP2(), b.getP3(), b.getP4()}){
+				out.writeDouble(p.x);
+				out.writeDouble(p.y);
+			}
+		}
+		out.writeInt(shape.getHoles().size());
+		for(var hole : shape.getHoles()){
+			writeShape(out, hole);
+		}
+	}
+
+	private static List<BezierShape> readShapes(final DataInputStream in, final long fileSize) throws IOException {
+		if(in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) throw new IOException("Not a trace cache file");
+		final int count = readCount(in, fileSize / SHAPE_BYTES);
+		final var shapes = new ArrayList<BezierShape>(count);
+		for(int i = 0; i < count; i++){
+			shapes.add(readShape(in, fileSize));
+		}
+		return shapes;
+	}
+
+	private static BezierShape readShape(final DataInputStream in, final long fileSize) throws IOException {
+		final int color = in.readInt();
+		final boolean closed = in.readBoolean();
+		final var fillRule = BezierShape.FillRule.values()[in.readByte()];
+		final int size = readCount(in, fileSize / CURVE_BYTES);
+		final var shape = new BezierShape(size);
+		for(int i = 0; i < size; i++){
+			final var p = new Vec2[4];
+			for(int k = 0; k < 4; k++){
+				final double x = in.readDouble();
+				p[k] = new Vec2(x, in.readDouble());
+			}
+			shape.add(new BezierCurve(p[0], p[1], p[2], p[3]));
+		}
+		shape.setColor(color);
+		shape.setClosed(closed);
+		shape.setFillRule(fillRule);
+		final int holeCount = readCount(in, fileSize / SHAPE_BYTES);
+		for(int i = 0; i < holeCount; i++){
+			shape.addHole(readShape(in, fileSize));
+		}
+		return shape;
+	}
+
+	/**
+	 * Reads a count, which must not be negative and must fit in the file (a
+	 * corrupt count could otherwise allocate more memory than is available)
+	 */
+	private static int readCount(final DataInputStream in, final long max) throws IOException {
+		final int count = in.readInt();
+		if(count < 0 || count > max) throw new IOException(String.format("Invalid count in trace cache file: %s", count));
+		return count;
+	}
+
+	/**
+	 * Computes a 128-bit hash of the size and contents of a raster and the
+	 * tracer settings, as two independent 64-bit lanes
+	 */
+	static Key hash(final IntMap bitmap, final String settings){
+		final int w = bitmap.getWidth(), h = bitmap.getHeight();
+		long h1 = 0x243F6A8885A308D3L, h2 = 0x13198A2E03707344L;
+		for(int i = 0; i < settings.length(); i++){
+			h1 = mix(h1, settings.charAt(i));
+			h2 = mix2(h2, settings.charAt(i));
+		}
+		h1 = mix(h1, w);
+		h2 = mix2(h2, h);
+		final int[] row = new int[w];
+		for(int y = 0; y < h; y++){
+			bitmap.getRegion(0, y, w, 1, row, 0, w);
+			for(int x = 0; x < w; x++){
+				final int v = row[x];
+				h1 = mix(h1, v);
+				h2 = mix2(h2, v);
+			}
+		}
+		return new Key(finish(h1 ^ h), finish(h2 ^ w));
+	}
+
+	private static long mix(final long h, final int v){
+		return Long.rotateLeft(h ^ (v * 0x9E3779B97F4A7C15L), 31) * 0xBF58476D1CE4E5B9L;
+	}
+
+	private static long mix2(final long h, final int v){
+		return Long.rotateLeft(h + (v * 0xC2B2AE3D27D4EB4FL), 27) * 0x94D049BB133111EBL;
+	}
+
+	/** avalanche the final bits (from MurmurHash3) */
+	private static long finish(long h){
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/** 128-bit cache key */
+	static final class Key {
+		final long high, low;
+		Key(long high, long low){
+			this.high = high;
+			this.low = low;
+		}
+		String toFileName(){
+			return String.format("%016x%016x.drpc", high, low);
+		}
+		@Override
+		public boolean equals(final Object o){
+			if(!(o instanceof Key)) return false;
+			final Key k = (Key) o;
+			return high == k.high && low == k.low;
+		}
+		@Override
+		public int hashCode(){
+			return Long.hashCode(high ^ low);
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package net.plantabyte.drptrace;
+
+/**
+ * An <code>ImmutableIntMap</code> is a read-only view of an <code>IntMap</code>
+ * whose values never change, as returned by <code>IntMap.freeze()</code>.
+ * Unlike other <code>IntMap</code>s, it is thread-safe: any number of threads
+ * may read it at the same time, and because the wrapped map is held in a
+ * <code>final</code> field, the values are visible to every thread that gets a
+ * reference to the <code>ImmutableIntMap</code>, even without synchronization.
+ * <p>
+ * Example: find the outlines of one raster with several threads (as well as
+ * fitting them), without copying it per thread<br>
+ * <code>
+ * ImmutableIntMap raster = bitmap.freeze();<br>
+ * shapes = tracer.traceAllShapes(raster, ForkJoinPool.commonPool());
+ * </code>
+ * </p>
+ */
+public final class ImmutableIntMap extends IntMap {
+	private final IntMap source;
+	private final int width;
+	private final int height;
+	
+	/**
+	 * Wraps a map which is never modified again
+	 * @param source a frozen map (see <code>IntMap.freezeInPlace()</code>)
+	 */
+	ImmutableIntMap(IntMap source){
+		this.source = source;
+		this.width = source.getWidth();
+		this.height = source.getHeight();
+	}
+	
+	/**
+	 * Gets the frozen map that this view reads, eg to use the methods of its
+	 * own class (such as <code>SparseTiledIntMap.isTileUniform(int, int)</code>)
+	 * or to recognize a <code>BorderedIntMap</code>. Its modifiers throw an
+	 * <code>UnsupportedOperationException</code>, so it never changes either.
+	 * @return the frozen map
+	 */
+	public IntMap getSource(){
+		return source;
+	}
+	
+	/**
+	 * Get the pixel color/cell value at the given x,y coordinate.
+	 * @param x X coordinate
+	 * @param y Y coordinate
+	 * @return An integer value
+	 * @throws ArrayIndexOutOfBoundsException thrown if (X,Y) is outside the
+	 * bounds of this <code>IntMap</code>
+	 */
+	@Override
+	public int get(final int x, final int y) throws ArrayIndexOutOfBoundsException {
+		return source.get(x, y);
+	}
+	
+	/**
+	 * Copies the values of a rectangular area into an array, in row order, such
+	 * that the value at (x+i, y+j) is stored at
+	 * <code>dst[offset + j*stride + i]</code>.
+	 * @param x X coordinate of the first column of the area
+	 * @param y Y coordinate of the first row of the area
+	 * @param width width of the area
+	 * @param height height of the area
+	 * @param dst destination array
+	 * @param offset index in <code>dst</code> of the value at (x,y)
+	 * @param stride distance in <code>dst</code> between consecutive rows
+	 * @throws ArrayIndexOutOfBoundsException thrown if the area is not inside
+	 * the bounds of this <code>IntMap</code>, or <code>dst</code> is too small
+	 */
+	@Override
+	public void getRegion(final int x, final int y, final int width, final int height,
+			final int[] dst, final int offset, final int stride) throws ArrayIndexOutOfBoundsException {
+		source.getRegion(x, y, width, height, dst, offset, stride);
+	}
+	
+	/**
+	 * Gets the width of this <code>IntMap</code>
+	 * @return The width of this <code>IntMap</code>
+	 */
+	@Override
+	public int getWidth() {
+		return width;
+	}
+	
+	/**
+	 * Gets the height of this <code>IntMap</code>
+	 * @return The height of this <code>IntMap</code>
+	 */
+	@Override
+	public int getHeight() {
+		return height;
+	}
+	
+	/**
+	 * Returns this map, which is already immutable
+	 * @return this <code>ImmutableIntMap</code>
+	 */
+	@Override
+	public ImmutableIntMap freeze(){
+		return this;
+	}
+	
+	/**
+	 * Always returns <code>true</code>
+	 * @return <code>true</code>
+	 */
+	@Override
+	public boolean isFrozen(){
+		return true;
+	}
+	
+	/**
+	 * Creates a modifiable deep-copy of the wrapped map
+	 * @return A new <code>IntMap</code> with identical data to this one.
+	 */
+	@Override
+	public IntMap clone() {
+		return source.clone();
+	}
+}
@@ -23,6 +23,7 @@ SOFTWARE.
  */
 package net.plantabyte.drptrace;
 
+import net.plantabyte.drptrace.intmaps.LinearIntMap;
 import net.plantabyte.drptrace.intmaps.ZOrderBinaryMap;
 import net.plantabyte.drptrace.intmaps.ZOrderByteMap;
 import net.plantabyte.drptrace.intmaps.ZOrderIntMap;
@@ -40,9 +41,16 @@ import net.plantabyte.drptrace.intmaps.ZOrderIntMap;
  * constitutes a valid value depends on the specific implementation (and some
  * implementations may be read-only).
  *
- * This class and provided implementations are not thread-safe.
+ * This class and provided implementations are not thread-safe, with one
+ * exception: <code>freeze()</code> returns an <code>ImmutableIntMap</code>,
+ * which can be read by any number of threads at once (eg by the workers of a
+ * <code>TiledTracer</code>, or by those of a <code>Tracer</code>, which then
+ * finds the outlines in parallel as well) without cloning it for each thread.
  */
 public abstract class IntMap {
+	/** set by <code>freezeInPlace()</code>, after which this map must not change */
+	private boolean frozen = false;
+	
 	/**
 	 * Utility function to create an <code>IntMap</code> from a given matrix.
 	 * @param matrix a square 2D array that is indexed in the order of [row][column]
@@ -90,6 +98,50 @@ public abstract class IntMap {
 	 */
 	public abstract int get(int x, int y) throws ArrayIndexOutOfBoundsException;
 	
+	/**
+	 * Copies the values of a rectangular area into an array, in row order, such
+	 * that the value at (x+i, y+j) is stored at
+	 * <code>dst[offset + j*stride + i]</code>. The default implementation calls
+	 * <code>get(x,y)</code> for every value; implementations override it with a
+	 * faster bulk copy where they can.
+	 * @param x X coordinate of the first column of the area
+	 * @param y Y coordinate of the first row of the area
+	 * @param width width of the area
+	 * @param height height of the area
+	 * @param dst destination array
+	 * @param offset index in <code>dst</code> of the value at (x,y)
+	 * @param stride distance in <code>dst</code> between consecutive rows
+	 * @throws ArrayIndexOutOfBoundsException thrown if the area is not inside
+	 * the bounds of this <code>IntMap</code>, or <code>dst</code> is too small
+	 */
+	public void getRegion(int x, int y, int width, int height, int[] dst, int offset, int stride)
+			throws ArrayIndexOutOfBoundsException {
+		checkRegion(x, y, width, height);
+		for(int j = 0; j < height; j++){
+			final int row = offset + j * stride;
+			for(int i = 0; i < width; i++){
+				dst[row + i] = get(x + i, y + j);
+			}
+		}
+	}
+	
+	/**
+	 * Checks that a rectangular area is inside the bounds of this
+	 * <code>IntMap</code>, for use by bulk access methods
+	 * @param x X coordinate of the first column of the area
+	 * @param y Y coordinate of the first row of the area
+	 * @param width width of the area
+	 * @param height height of the area
+	 * @throws ArrayIndexOutOfBoundsException thrown if the area is not inside
+	 * the bounds of this <code>IntMap</code>
+	 */
+	protected final void checkRegion(int x, int y, int width, int height) throws ArrayIndexOutOfBoundsException {
+		if(x < 0 || y < 0 || width < 0 || height < 0 || x > getWidth() - width || y > getHeight() - height){
+			throw new ArrayIndexOutOfBoundsException(String.format("Area %sx%s at (%s, %s) is out of bounds of %sx%s IntMap",
+					width, height, x, y, getWidth(), getHeight()));
+		}
+	}
+	
 	/**
 	 * Gets the width of this <code>IntMap</code>
 	 * @return The width of this <code>IntMap</code>
@@ -108,6 +160,64 @@ public abstract class IntMap {
 	 */
 	public abstract IntMap clone();
 	
+	/**
+	 * Returns an immutable, thread-safe view of the current values of this
+	 * <code>IntMap</code>. The returned map can be shared by several threads,
+	 * even if it is handed to them without synchronization, and never changes.
+	 * <p>
+	 * The provided implementations do this without copying: they become
+	 * read-only (their <code>set(...)</code> methods and other modifiers throw an
+	 * <code>UnsupportedOperationException</code>, see <code>isFrozen()</code>)
+	 * and the returned map reads their storage directly. Use
+	 * <code>clone()</code> first to keep a modifiable copy. The default
+	 * implementation, for other subclasses, copies the values into a
+	 * <code>LinearIntMap</code> and freezes that instead, which leaves this map
+	 * modifiable. Either way, <code>ImmutableIntMap.getSource()</code> is a
+	 * frozen map.
+	 * </p>
+	 * @return An immutable <code>IntMap</code> with the same values as this one
+	 */
+	public ImmutableIntMap freeze(){
+		final int w = getWidth(), h = getHeight();
+		final var copy = new LinearIntMap(w, h);
+		final int[] row = new int[w];
+		for(int y = 0; y < h; y++){
+			getRegion(0, y, w, 1, row, 0, w);
+			copy.setRow(y, row, 0);
+		}
+		return copy.freeze();
+	}
+	
+	/**
+	 * Returns <code>true</code> if <code>freeze()</code> has made this map
+	 * read-only
+	 * @return <code>true</code> if the values of this map can no longer change
+	 */
+	public boolean isFrozen(){
+		return frozen;
+	}
+	
+	/**
+	 * Implementation of <code>freeze()</code> for subclasses whose modifiers all
+	 * call <code>checkNotFrozen()</code> and whose read methods do not modify
+	 * any state: marks this map as read-only and wraps it, without copying.
+	 * @return An immutable view of this map
+	 */
+	protected final ImmutableIntMap freezeInPlace(){
+		frozen = true;
+		return new ImmutableIntMap(this);
+	}
+	
+	/**
+	 * Checks that this map may be modified, for use by the modifiers of
+	 * subclasses that implement <code>freeze()</code> with
+	 * <code>freezeInPlace()</code>
+	 * @throws UnsupportedOperationException Thrown if this map has been frozen
+	 */
+	protected final void checkNotFrozen() throws UnsupportedOperationException {
+		if(frozen) throw new UnsupportedOperationException(String.format("Cannot modify a frozen %s", getClass().getSimpleName()));
+	}
+	
 	/**
 	 * Returns <code>true</code> if and only if the coordinate (X,Y) is valid
 	 * (ie calling <code>get(x,y)</code> will return a value without error)
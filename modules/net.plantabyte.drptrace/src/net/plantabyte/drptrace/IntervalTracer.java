@@ -89,6 +89,7 @@ public class IntervalTracer extends Tracer {
 
 		int start = 0;
 		for(int c = 0; c < numBeziers && start < numPoints; c++){
+			TraceContext.checkCurrent();
 			int end = Math.min(start + intervalSize, numPoints + e_offset); // start and end are both inclusive
 			// note: exclude end points from fitting
 			final Vec2[] buffer;
@@ -109,5 +110,14 @@ public class IntervalTracer extends Tracer {
 		return beziers;
 	}
 
+	/**
+	 * Describes the settings of this tracer, including the interval
+	 * @return A string identifying the tracer class and its settings
+	 */
+	@Override
+	public String getSettingsKey(){
+		return super.getSettingsKey() + ";interval=" + interval;
+	}
+
 
 }
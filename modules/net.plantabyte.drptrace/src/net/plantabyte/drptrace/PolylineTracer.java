@@ -135,6 +135,7 @@ public class PolylineTracer extends Tracer{
 		final var endIndices = new ArrayList<Integer>();
 		segments.setClosed(closedLoop);
 		for(int i = 1; i < nodeIndices.size(); ++i){
+			TraceContext.checkCurrent();
 			final int start = nodeIndices.get(i-1);
 			startIndices.add(start);
 			final int end = nodeIndices.get(i);
@@ -151,6 +152,7 @@ public class PolylineTracer extends Tracer{
 		// smooth out almost smooth nodes
 		final double smoothAngleThreshold = 0.75*Math.PI;
 		for(int n = 0; n < segments.size()-1-e_offset; ++n){
+			TraceContext.checkCurrent();
 			final int start = startIndices.get(n);
 			final int middle = endIndices.get(n);
 			final int end = endIndices.get((n+1)%segments.size());
@@ -0,0 +1,550 @@
+package net.plantabyte.drptrace;
+
+import net.plantabyte.drptrace.geometry.BezierShape;
+import net.plantabyte.drptrace.geometry.ChainCode;
+import net.plantabyte.drptrace.geometry.Vec2;
+import net.plantabyte.drptrace.intmaps.RegionMap;
+import net.plantabyte.drptrace.intmaps.ZOrderIntMap;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+
+/**
+ * The <code>TiledTracer</code> traces very large rasters by splitting them into
+ * square tiles which are labeled and traced independently (and in parallel),
+ * so that only one tile's worth of region labels per worker thread is held in
+ * memory. Patches of color that cross the seams between tiles are stitched
+ * back together by joining the matching pixels on either side of each seam,
+ * and each stitched patch is then traced as a whole. The result is identical
+ * to tracing the whole image at once with the wrapped <code>Tracer</code>.
+ * <p>
+ * The curve fitting is delegated to the <code>Tracer</code> given in the
+ * constructor (eg <code>new TiledTracer(new IntervalTracer(10), 1024)</code>),
+ * and the settings (<code>setStraightRunLength(int)</code> and so on) are
+ * those of the wrapped <code>Tracer</code>, so setting them on either one has
+ * the same effect. Because tiles are read from several threads at once, the
+ * <code>IntMap</code> must not be modified while it is being traced (see
+ * <code>IntMap.freeze()</code>). Holes (<code>setTraceHoles(boolean)</code>)
+ * and the minimum patch area (<code>setMinimumArea(int)</code>) are not
+ * supported, since both would require labeling the whole raster at once, so
+ * the wrapped <code>Tracer</code> must not have either of them enabled.
+ * </p>
+ * <p>
+ * Only a few rows of tiles (enough to keep the executor busy) are labeled
+ * ahead of the row being stitched, and each row is dropped once it has been
+ * stitched. Shapes are delivered as soon as every shape before them (in scan
+ * order) is known, so the first shapes arrive after the first row of tiles is
+ * done; a patch which crosses many rows of tiles (such as a background)
+ * holds back the shapes after its seed until it is complete. A patch that
+ * crosses a seam is traced within its own bounding box, once it is complete.
+ * </p>
+ */
+public class TiledTracer extends Tracer {
+	/** runs each tile task on the calling thread, as soon as it is submitted */
+	private static final Executor DIRECT = Runnable::run;
+
+	private final Tracer tracer;
+	private final int tileSize;
+
+	/**
+	 * Constructs a new <code>TiledTracer</code>
+	 * @param tracer The <code>Tracer</code> used to fit the bezier curves
+	 * @param tileSize The width and height of each tile, in pixels (eg 1024)
+	 * @throws IllegalArgumentException Thrown if the tile size is less than 1,
+	 * or if <code>tracer</code> traces holes or has a minimum patch area
+	 */
+	public TiledTracer(Tracer tracer, int tileSize){
+		if(tileSize < 1) throw new IllegalArgumentException(String.format("Invalid tile size: %s (must be at least 1)", tileSize));
+		checkSettings(tracer);
+		this.tracer = tracer;
+		this.tileSize = tileSize;
+	}
+
+	private static void checkSettings(final Tracer tracer) throws IllegalArgumentException {
+		if(tracer.getTraceHoles()){
+			throw new IllegalArgumentException("TiledTracer does not trace holes (the wrapped tracer has holes enabled)");
+		}
+		if(tracer.getMinimumArea() > 1){
+			throw new IllegalArgumentException(String.format("TiledTracer does not merge small patches (the wrapped tracer has minimum area %s)", tracer.getMinimumArea()));
+		}
+	}
+
+	/**
+	 * Holes are not supported by the <code>TiledTracer</code>, since finding
+	 * them would require labeling the whole raster at once
+	 * @param traceHoles must be <code>false</code>
+	 * @throws UnsupportedOperationException Thrown if <code>traceHoles</code>
+	 * is <code>true</code>
+	 */
+	@Override
+	public void setTraceHoles(boolean traceHoles) throws UnsupportedOperationException {
+		if(traceHoles) throw new UnsupportedOperationException("TiledTracer does not trace holes");
+		tracer.setTraceHoles(false);
+	}
+
+	/**
+	 * Returns whether the wrapped <code>Tracer</code> traces holes
+	 * @return <code>true</code> if holes are traced
+	 */
+	@Override
+	public boolean getTraceHoles(){
+		return tracer.getTraceHoles();
+	}
+
+	/**
+	 * A minimum patch area is not supported by the <code>TiledTracer</code>,
+	 * since merging small patches would require labeling the whole raster at
+	 * once
+	 * @param minimumArea must be 0 or 1
+	 * @throws IllegalArgumentException Thrown if <code>minimumArea</code> is
+	 * negative
+	 * @throws UnsupportedOperationException Thrown if <code>minimumArea</code>
+	 * is more than 1
+	 */
+	@Override
+	public void setMinimumArea(int minimumArea) throws IllegalArgumentException, UnsupportedOperationException {
+		if(minimumArea > 1) throw new UnsupportedOperationException(String.format("TiledTracer does not merge small patches (minimum area %s)", minimumArea));
+		tracer.setMinimumArea(minimumArea);
+	}
+
+	/**
+	 * Returns the minimum patch area of the wrapped <code>Tracer</code>
+	 * @return minimum number of pixels per patch
+	 */
+	@Override
+	public int getMinimumArea(){
+		return tracer.getMinimumArea();
+	}
+
+	/**
+	 * Sets the straight run length of the wrapped <code>Tracer</code>
+	 * @param straightRunLength minimum number of pixel edges in a straight line
+	 *                          (at least 2), or 0 to disable
+	 * @throws IllegalArgumentException Thrown if <code>straightRunLength</code>
+	 * is negative or 1
+	 * @see Tracer#setStraightRunLength(int)
+	 */
+	@Override
+	public void setStraightRunLength(int straightRunLength) throws IllegalArgumentException {
+		tracer.setStraightRunLength(straightRunLength);
+	}
+
+	/**
+	 * Returns the straight run length of the wrapped <code>Tracer</code>
+	 * @return minimum number of pixel edges, or 0 if disabled
+	 */
+	@Override
+	public int getStraightRunLength(){
+		return tracer.getStraightRunLength();
+	}
+
+	/**
+	 * Traces a series of points as a sequence of bezier curves using the
+	 * wrapped <code>Tracer</code>.
+	 * @param pathPoints A series of points to trace with bezier curves.
+	 * @param closedLoop If true, traceback to the starting point (index 0);
+	 *                   if false, trace to the final point
+	 * @return Returns a list of <code>BezierCurve</code>s tracing the path of
+	 * the points
+	 * @throws IllegalArgumentException Thrown if any of the input arguments are
+	 * invalid (eg too few points)
+	 */
+	@Override
+	public BezierShape tracePath(final Vec2[] pathPoints, final boolean closedLoop)
+			throws IllegalArgumentException {
+		return tracer.tracePath(pathPoints, closedLoop);
+	}
+
+	/**
+	 * Traces a closed pixel outline using the wrapped <code>Tracer</code>
+	 * @param contour The outline to trace
+	 * @return Returns a list of <code>BezierCurve</code>s tracing the outline
+	 * @throws IllegalArgumentException Thrown if any of the input arguments are
+	 * invalid (eg too few points to trace)
+	 */
+	@Override
+	public BezierShape traceContour(ChainCode contour) throws IllegalArgumentException {
+		return tracer.traceContour(contour);
+	}
+
+	/**
+	 * Describes the settings of the wrapped <code>Tracer</code>, since tiling
+	 * does not change the traced shapes
+	 * @return A string identifying the wrapped tracer class and its settings
+	 */
+	@Override
+	public String getSettingsKey(){
+		return tracer.getSettingsKey();
+	}
+
+	/**
+	 * Traces every shape (including the background) of the provided raster
+	 * bitmap tile by tile on the calling thread.
+	 * @param bitmap A 2D array of integer values, such that each contiguous area
+	 *               of a number is considered to be a single shape.
+	 * @param context The context of this trace
+	 * @param consumer Receives each shape, in back-to-front order
+	 * @throws IllegalArgumentException Thrown if any of the input arguments are
+	 * invalid (eg too few points to trace), or if the wrapped tracer traces
+	 * holes or has a minimum patch area
+	 * @throws CancellationException Thrown if the context was cancelled or its
+	 * deadline passed before the trace was finished
+	 */
+	@Override
+	public void traceEachShape(final IntMap bitmap, final TraceContext context, final Consumer<BezierShape> consumer)
+			throws IllegalArgumentException, CancellationException {
+		traceEachShape(bitmap, DIRECT, context, consumer);
+	}
+
+	/**
+	 * Traces every shape (including the background) of the provided raster
+	 * bitmap tile by tile, using the given <code>Executor</code> to label and
+	 * trace the tiles. The shapes are delivered on the calling thread in the
+	 * same order as <code>traceAllShapes(IntMap)</code> would return them,
+	 * starting as soon as the first row of tiles is done. Since the number of
+	 * shapes is not known until the last row of tiles is done, the progress
+	 * listener is given the number of shapes found so far as the total.
+	 * @param bitmap A 2D array of integer values, such that each contiguous area
+	 *               of a number is considered to be a single shape.
+	 * @param executor The executor which will run the tile tasks (eg
+	 *                 <code>ForkJoinPool.commonPool()</code>)
+	 * @param context The context of this trace
+	 * @param consumer Receives each shape, in back-to-front order
+	 * @throws IllegalArgumentException Thrown if any of the input arguments are
+	 * invalid (eg too few points to trace), or if the wrapped tracer traces
+	 * holes or has a minimum patch area
+	 * @throws CancellationException Thrown if the context was cancelled or its
+	 * deadline passed before the trace was finished
+	 */
+	@Override
+	public void traceEachShape(final IntMap bitmap, final Executor executor, final TraceContext context,
+			final Consumer<BezierShape> consumer) throws IllegalArgumentException, CancellationException {
+		checkSettings(tracer);
+		final int w = bitmap.getWidth(), h = bitmap.getHeight();
+		final int tilesX = (w + tileSize - 1) / tileSize, tilesY = (h + tileSize - 1) / tileSize;
+		// first, label and trace each tile on its own (patches that touch a seam
+		// are only recorded for stitching), keeping enough rows of tiles ahead of
+		// the row being stitched to keep the executor busy (on the calling
+		// thread, one row is enough, since each tile is done when submitted)
+		final int rowsAhead = executor == DIRECT ? 1 : Math.max(1, (maxInFlight(executor) + tilesX - 1) / tilesX);
+		final var tileRows = new ArrayDeque<List<CompletableFuture<Tile>>>(rowsAhead + 1);
+		int submittedRows = 0;
+		final var seams = new SeamPieces();
+		// seam pieces whose stitched patch may still grow into the next row of tiles
+		var open = new IntList();
+		final var ready = new PriorityQueue<SeededShape>((a, b) -> Long.compare(a.seed, b.seed));
+		final long totalPixels = (long) w * h;
+		int delivered = 0;
+		Tile[] below = null;
+		try {
+			for(int ty = 0; ty < tilesY; ty++){
+				for(; submittedRows < tilesY && submittedRows <= ty + rowsAhead; submittedRows++){
+					final var tasks = new ArrayList<CompletableFuture<Tile>>(tilesX);
+					for(int tx = 0; tx < tilesX; tx++){
+						final int x0 = tx * tileSize, y0 = submittedRows * tileSize;
+						tasks.add(CompletableFuture.supplyAsync(() -> context.call(() -> traceTile(bitmap, x0, y0)), executor));
+					}
+					tileRows.add(tasks);
+				}
+				final var row = new Tile[tilesX];
+				final var tasks = tileRows.peek();
+				for(int tx = 0; tx < tilesX; tx++){
+					final Tile tile = row[tx] = join(tasks.get(tx));
+					tile.seamOffset = seams.add(tile);
+					for(int i = 0; i < tile.seamSeeds.length; i++) open.add(tile.seamOffset + i);
+					ready.addAll(tile.shapes);
+					tile.shapes.clear();
+				}
+				tileRows.poll();
+				// stitch the seam patches together across each seam of this row
+				for(int tx = 0; tx + 1 < tilesX; tx++){
+					final Tile tile = row[tx], right = row[tx + 1];
+					final int x = right.x0;
+					for(int i = 0; i < tile.right.length; i++){
+						if(bitmap.get(x - 1, tile.y0 + i) == bitmap.get(x, tile.y0 + i)){
+							seams.union(tile.seamOffset + tile.right[i], right.seamOffset + right.left[i]);
+						}
+					}
+				}
+				if(below != null){
+					for(int tx = 0; tx < tilesX; tx++){
+						final Tile tile = below[tx], up = row[tx];
+						final int y = up.y0;
+						for(int i = 0; i < tile.top.length; i++){
+							if(bitmap.get(tile.x0 + i, y - 1) == bitmap.get(tile.x0 + i, y)){
+								seams.union(tile.seamOffset + tile.top[i], up.seamOffset + up.bottom[i]);
+							}
+						}
+					}
+				}
+				// a stitched patch is complete once it no longer reaches the top of
+				// this row, and can then be traced within its bounding box
+				final var growing = new BitSet(seams.count);
+				if(ty + 1 < tilesY){
+					for(var tile : row){
+						for(int piece : tile.top) growing.set(seams.find(tile.seamOffset + piece));
+					}
+				}
+				final var stillOpen = new IntList();
+				for(int k = 0; k < open.size; k++){
+					final int piece = open.get(k);
+					if(growing.get(seams.find(piece))) stillOpen.add(piece); else seams.mergeIntoRoot(piece);
+				}
+				for(int k = 0; k < open.size; k++){
+					final int root = seams.find(open.get(k));
+					if(!growing.get(root) && !seams.traced[root]){
+						seams.traced[root] = true;
+						final long seed = seams.seeds[root];
+						final int color = seams.values[root];
+						final int x0 = seams.minX[root], y0 = seams.minY[root];
+						final int bw = seams.maxX[root] - x0 + 1, bh = seams.maxY[root] - y0 + 1;
+						final var task = CompletableFuture.supplyAsync(
+								() -> context.call(() -> traceRegion(new TileView(bitmap, x0, y0, bw, bh), x0, y0,
+										(int)(seed % w), (int)(seed / w), color)), executor);
+						ready.add(new SeededShape(seed, task));
+					}
+				}
+				open = stillOpen;
+				below = row;
+				// every shape with a seed before the earliest seed that is still to
+				// come can be delivered now
+				long watermark = ty + 1 < tilesY ? (long) row[0].y0 * w + (long) tileSize * w : Long.MAX_VALUE;
+				for(int k = 0; k < open.size; k++){
+					watermark = Math.min(watermark, seams.seeds[open.get(k)]);
+				}
+				while(!ready.isEmpty() && ready.peek().seed < watermark){
+					context.checkpoint();
+					consumer.accept(join(ready.peek().task));
+					ready.poll();
+					delivered++;
+					final long scanned = Math.min(totalPixels, Math.min(watermark, ready.isEmpty() ? Long.MAX_VALUE : ready.peek().seed));
+					context.progress(scanned, totalPixels, delivered, delivered + ready.size());
+				}
+			}
+		} catch(RuntimeException e){
+			for(var tasks : tileRows) cancelAll(tasks);
+			for(var shape : ready) shape.task.cancel(false);
+			throw e;
+		}
+	}
+
+	private Tile traceTile(final IntMap bitmap, final int x0, final int y0){
+		final int tw = Math.min(tileSize, bitmap.getWidth() - x0);
+		final int th = Math.min(tileSize, bitmap.getHeight() - y0);
+		final boolean seamLeft = x0 > 0, seamBottom = y0 > 0;
+		final boolean seamRight = x0 + tw < bitmap.getWidth(), seamTop = y0 + th < bitmap.getHeight();
+		final var view = new TileView(bitmap, x0, y0, tw, th);
+		final var regions = RegionMap.label(view);
+		final var tile = new Tile(x0, y0);
+		final int[] seamIndex = new int[regions.getRegionCount()];
+		int seamCount = 0;
+		for(int r = 0; r < regions.getRegionCount(); r++){
+			final boolean onSeam = (seamLeft && regions.getMinX(r) == 0)
+					|| (seamBottom && regions.getMinY(r) == 0)
+					|| (seamRight && regions.getMaxX(r) == tw - 1)
+					|| (seamTop && regions.getMaxY(r) == th - 1);
+			seamIndex[r] = onSeam ? seamCount++ : -1;
+		}
+		tile.seamSeeds = new long[seamCount];
+		tile.seamValues = new int[seamCount];
+		tile.seamBounds = new int[4 * seamCount];
+		for(int r = 0; r < regions.getRegionCount(); r++){
+			final long seed = seedIndex(bitmap, x0 + regions.getSeedX(r), y0 + regions.getSeedY(r));
+			if(seamIndex[r] >= 0){
+				tile.seamSeeds[seamIndex[r]] = seed;
+				tile.seamValues[seamIndex[r]] = regions.getValue(r);
+				final int b = 4 * seamIndex[r];
+				tile.seamBounds[b] = regions.getMinX(r);
+				tile.seamBounds[b + 1] = regions.getMinY(r);
+				tile.seamBounds[b + 2] = regions.getMaxX(r);
+				tile.seamBounds[b + 3] = regions.getMaxY(r);
+			} else {
+				// entirely inside this tile, so it can be traced right away
+				final var shape = traceRegion(view, x0, y0, x0 + regions.getSeedX(r), y0 + regions.getSeedY(r), regions.getValue(r));
+				tile.shapes.add(new SeededShape(seed, CompletableFuture.completedFuture(shape)));
+			}
+		}
+		tile.left = new int[th];
+		tile.right = new int[th];
+		for(int y = 0; y < th; y++){
+			tile.left[y] = seamIndex[regions.get(0, y)];
+			tile.right[y] = seamIndex[regions.get(tw - 1, y)];
+		}
+		tile.bottom = new int[tw];
+		tile.top = new int[tw];
+		for(int x = 0; x < tw; x++){
+			tile.bottom[x] = seamIndex[regions.get(x, 0)];
+			tile.top[x] = seamIndex[regions.get(x, th - 1)];
+		}
+		return tile;
+	}
+
+	/**
+	 * Traces the outline of a patch within a window of the raster which holds
+	 * the whole patch
+	 * @param window the window
+	 * @param x0 X coordinate of the window in the raster
+	 * @param y0 Y coordinate of the window in the raster
+	 * @param x X coordinate of the seed of the patch in the raster
+	 * @param y Y coordinate of the seed of the patch in the raster
+	 * @param color the value of the patch
+	 * @return the fitted shape, in the coordinates of the raster
+	 */
+	private BezierShape traceRegion(final IntMap window, final int x0, final int y0, final int x, final int y, final int color){
+		var vectorized = tracer.traceContour(followContour(window, x - x0, y - y0).translate(x0, y0));
+		vectorized.setColor(color);
+		vectorized.setClosed(true);
+		return vectorized;
+	}
+
+	private static long seedIndex(final IntMap bitmap, final int x, final int y){
+		return (long)y * bitmap.getWidth() + x;
+	}
+
+	/**
+	 * Union-find forest over the patches touching a seam, which grows as each
+	 * row of tiles is added. The root of each set holds the earliest seed and
+	 * (once complete) the bounding box of the stitched patch.
+	 */
+	private static final class SeamPieces {
+		int count = 0;
+		int[] parent = new int[16];
+		long[] seeds = new long[16];
+		int[] values = new int[16];
+		int[] minX = new int[16], minY = new int[16], maxX = new int[16], maxY = new int[16];
+		boolean[] traced = new boolean[16];
+
+		/** adds the seam patches of a tile and returns the index of the first one */
+		int add(final Tile tile){
+			final int offset = count;
+			final int n = tile.seamSeeds.length;
+			if(count + n > parent.length){
+				final int size = Math.max(count + n, parent.length * 2);
+				parent = Arrays.copyOf(parent, size);
+				seeds = Arrays.copyOf(seeds, size);
+				values = Arrays.copyOf(values, size);
+				minX = Arrays.copyOf(minX, size);
+				minY = Arrays.copyOf(minY, size);
+				maxX = Arrays.copyOf(maxX, size);
+				maxY = Arrays.copyOf(maxY, size);
+				traced = Arrays.copyOf(traced, size);
+			}
+			for(int i = 0; i < n; i++){
+				parent[offset + i] = offset + i;
+				seeds[offset + i] = tile.seamSeeds[i];
+				values[offset + i] = tile.seamValues[i];
+				minX[offset + i] = tile.x0 + tile.seamBounds[4 * i];
+				minY[offset + i] = tile.y0 + tile.seamBounds[4 * i + 1];
+				maxX[offset + i] = tile.x0 + tile.seamBounds[4 * i + 2];
+				maxY[offset + i] = tile.y0 + tile.seamBounds[4 * i + 3];
+			}
+			count += n;
+			return offset;
+		}
+
+		int find(int a){
+			while(parent[a] != a) a = parent[a] = parent[parent[a]];
+			return a;
+		}
+
+		void union(final int a, final int b){
+			final int ra = find(a), rb = find(b);
+			if(ra < rb){
+				parent[rb] = ra;
+			} else if(rb < ra){
+				parent[ra] = rb;
+			}
+			final int root = Math.min(ra, rb);
+			seeds[root] = Math.min(seeds[ra], seeds[rb]);
+		}
+
+		/** grows the bounding box of the root of a piece to hold that piece */
+		void mergeIntoRoot(final int piece){
+			final int root = find(piece);
+			minX[root] = Math.min(minX[root], minX[piece]);
+			minY[root] = Math.min(minY[root], minY[piece]);
+			maxX[root] = Math.max(maxX[root], maxX[piece]);
+			maxY[root] = Math.max(maxY[root], maxY[piece]);
+		}
+	}
+
+	/** Growable list of <code>int</code>s */
+	private static final class IntList {
+		int[] data = new int[16];
+		int size = 0;
+		void add(final int value){
+			if(size == data.length) data = Arrays.copyOf(data, size * 2);
+			data[size++] = value;
+		}
+		int get(final int index){
+			return data[index];
+		}
+	}
+
+	/** Result of labeling and tracing one tile */
+	private static final class Tile {
+		final int x0, y0;
+		final List<SeededShape> shapes = new ArrayList<>();
+		/** seed index and value of each patch touching a seam */
+		long[] seamSeeds;
+		int[] seamValues;
+		/** bounding box (min X, min Y, max X, max Y within the tile) of each patch touching a seam */
+		int[] seamBounds;
+		/** seam patch index of each pixel along the four edges of the tile */
+		int[] left, right, bottom, top;
+		int seamOffset;
+		Tile(int x0, int y0){
+			this.x0 = x0;
+			this.y0 = y0;
+		}
+	}
+
+	private static final class SeededShape {
+		final long seed;
+		final CompletableFuture<BezierShape> task;
+		SeededShape(long seed, CompletableFuture<BezierShape> task){
+			this.seed = seed;
+			this.task = task;
+		}
+	}
+
+	/** Read-only window into another <code>IntMap</code> */
+	private static final class TileView extends IntMap {
+		private final IntMap src;
+		private final int x0, y0, width, height;
+		TileView(IntMap src, int x0, int y0, int width, int height){
+			this.src = src;
+			this.x0 = x0;
+			this.y0 = y0;
+			this.width = width;
+			this.height = height;
+		}
+		@Override public int get(final int x, final int y) {
+			return src.get(x0 + x, y0 + y);
+		}
+		@Override public int getWidth() {
+			return width;
+		}
+		@Override public int getHeight() {
+			return height;
+		}
+		@Override public IntMap clone() {
+			var copy = new ZOrderIntMap(width, height);
+			for(int y = 0; y < height; y++){
+				for(int x = 0; x < width; x++){
+					copy.set(x, y, get(x, y));
+				}
+			}
+			return copy;
+		}
+	}
+}
@@ -0,0 +1,463 @@
+package net.plantabyte.drptrace;
+
+import net.plantabyte.drptrace.geometry.BezierCurve;
+import net.plantabyte.drptrace.geometry.BezierShape;
+import net.plantabyte.drptrace.geometry.ChainCode;
+import net.plantabyte.drptrace.geometry.Vec2;
+import net.plantabyte.drptrace.intmaps.RegionMap;
+import net.plantabyte.drptrace.trace.HoleIndex;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+import static net.plantabyte.drptrace.geometry.ChainCode.*;
+import static net.plantabyte.drptrace.trace.BoundaryWalker.*;
+
+/**
+ * The <code>TopologyTracer</code> traces a raster such that the border between
+ * two neighboring patches of color is fitted only once and then shared by both
+ * shapes (in opposite directions). The outlines are split into segments at
+ * every junction, which is a grid intersection where three or more patches
+ * meet (counting the area outside the raster) or where two patches touch only
+ * diagonally. Each segment is fitted with the wrapped <code>Tracer</code>, and
+ * each <code>BezierShape</code> is assembled from its segments. As a result,
+ * neighboring shapes fit together without gaps or overlaps and half as many
+ * curves need to be fitted.
+ * <p>
+ * The shapes are the same patches, in the same order, as those from
+ * <code>Tracer.traceAllShapes(IntMap)</code> of the wrapped <code>Tracer</code>,
+ * but the curves differ because they are fitted per segment rather than per
+ * outline. As with <code>TiledTracer</code> and <code>CachingTracer</code>,
+ * the settings (<code>setTraceHoles(boolean)</code> and so on) are those of
+ * the wrapped <code>Tracer</code>, so setting them on either one has the same
+ * effect. Holes are assembled from the same shared segments, and straight
+ * runs are found within each segment, so both sides share the same lines.
+ * Example:
+ * <code>new TopologyTracer(new PolylineTracer()).traceAllShapes(raster)</code>
+ * </p>
+ */
+public class TopologyTracer extends Tracer {
+	private final Tracer tracer;
+
+	/**
+	 * Constructs a new <code>TopologyTracer</code>
+	 * @param tracer The <code>Tracer</code> used to fit the bezier curves of each
+	 *               boundary segment
+	 */
+	public TopologyTracer(Tracer tracer){
+		this.tracer = tracer;
+	}
+
+	/**
+	 * Traces a series of points as a sequence of bezier curves using the
+	 * wrapped <code>Tracer</code>.
+	 * @param pathPoints A series of points to trace with bezier curves.
+	 * @param closedLoop If true, traceback to the starting point (index 0);
+	 *                   if false, trace to the final point
+	 * @return Returns a list of <code>BezierCurve</code>s tracing the path of
+	 * the points
+	 * @throws IllegalArgumentException Thrown if any of the input arguments are
+	 * invalid (eg too few points)
+	 */
+	@Override
+	public BezierShape tracePath(final Vec2[] pathPoints, final boolean closedLoop)
+			throws IllegalArgumentException {
+		return tracer.tracePath(pathPoints, closedLoop);
+	}
+
+	/**
+	 * Traces a closed pixel outline using the wrapped <code>Tracer</code>
+	 * @param contour The outline to trace
+	 * @return Returns a list of <code>BezierCurve</code>s tracing the outline
+	 * @throws IllegalArgumentException Thrown if any of the input arguments are
+	 * invalid (eg too few points to trace)
+	 */
+	@Override
+	public BezierShape traceContour(ChainCode contour) throws IllegalArgumentException {
+		return tracer.traceContour(contour);
+	}
+
+	/**
+	 * Sets whether the wrapped <code>Tracer</code> traces holes
+	 * @param traceHoles <code>true</code> to trace holes
+	 * @see Tracer#setTraceHoles(boolean)
+	 */
+	@Override
+	public void setTraceHoles(boolean traceHoles){
+		tracer.setTraceHoles(traceHoles);
+	}
+
+	/**
+	 * Returns whether the wrapped <code>Tracer</code> traces holes
+	 * @return <code>true</code> if holes are traced
+	 */
+	@Override
+	public boolean getTraceHoles(){
+		return tracer.getTraceHoles();
+	}
+
+	/**
+	 * Sets the minimum patch area of the wrapped <code>Tracer</code>
+	 * @param minimumArea minimum number of pixels per patch (0 or 1 to disable)
+	 * @throws IllegalArgumentException Thrown if <code>minimumArea</code> is
+	 * negative
+	 * @see Tracer#setMinimumArea(int)
+	 */
+	@Override
+	public void setMinimumArea(int minimumArea) throws IllegalArgumentException {
+		tracer.setMinimumArea(minimumArea);
+	}
+
+	/**
+	 * Returns the minimum patch area of the wrapped <code>Tracer</code>
+	 * @return minimum number of pixels per patch
+	 */
+	@Override
+	public int getMinimumArea(){
+		return tracer.getMinimumArea();
+	}
+
+	/**
+	 * Sets the straight run length of the wrapped <code>Tracer</code>
+	 * @param straightRunLength minimum number of pixel edges in a straight line
+	 *                          (at least 2), or 0 to disable
+	 * @throws IllegalArgumentException Thrown if <code>straightRunLength</code>
+	 * is negative or 1
+	 * @see Tracer#setStraightRunLength(int)
+	 */
+	@Override
+	public void setStraightRunLength(int straightRunLength) throws IllegalArgumentException {
+		tracer.setStraightRunLength(straightRunLength);
+	}
+
+	/**
+	 * Returns the straight run length of the wrapped <code>Tracer</code>
+	 * @return minimum number of pixel edges, or 0 if disabled
+	 */
+	@Override
+	public int getStraightRunLength(){
+		return tracer.getStraightRunLength();
+	}
+
+	/**
+	 * Describes the settings of the wrapped <code>Tracer</code>, which are
+	 * also the settings of this one, marked as fitted per segment
+	 * @return A string identifying the tracer classes and their settings
+	 */
+	@Override
+	public String getSettingsKey(){
+		return getClass().getName() + ";tracer=(" + tracer.getSettingsKey() + ")";
+	}
+
+	/** the shapes share segments with their neighbors, so they are not fitted per outline */
+	@Override
+	Tracer outlineFitter(){
+		return null;
+	}
+
+	/**
+	 * Traces every shape (including the background) of the provided raster
+	 * bitmap, fitting each shared boundary segment once.
+	 * @param bitmap A 2D array of integer values, such that each contiguous area
+	 *               of a number is considered to be a single shape.
+	 * @param context The context of this trace
+	 * @param consumer Receives each shape, in back-to-front order
+	 * @throws IllegalArgumentException Thrown if any of the input arguments are
+	 * invalid (eg too few points to trace)
+	 * @throws CancellationException Thrown if the context was cancelled or its
+	 * deadline passed before the trace was finished
+	 */
+	@Override
+	public void traceEachShape(final IntMap bitmap, final TraceContext context, final Consumer<BezierShape> consumer)
+			throws IllegalArgumentException, CancellationException {
+		traceEachShape(bitmap, Runnable::run, context, consumer);
+	}
+
+	/**
+	 * Traces every shape (including the background) of the provided raster
+	 * bitmap, fitting each shared boundary segment once on the given
+	 * <code>Executor</code>. The shapes are assembled and delivered on the
+	 * calling thread after all segments have been fitted.
+	 * @param bitmap A 2D array of integer values, such that each contiguous area
+	 *               of a number is considered to be a single shape.
+	 * @param executor The executor which will run the curve fitting tasks (eg
+	 *                 <code>ForkJoinPool.commonPool()</code>)
+	 * @param context The context of this trace
+	 * @param consumer Receives each shape, in back-to-front order
+	 * @throws IllegalArgumentException Thrown if any of the input arguments are
+	 * invalid (eg too few points to trace)
+	 * @throws CancellationException Thrown if the context was cancelled or its
+	 * deadline passed before the trace was finished
+	 */
+	@Override
+	public void traceEachShape(final IntMap bitmap, final Executor executor, final TraceContext context,
+			final Consumer<BezierShape> consumer) throws IllegalArgumentException, CancellationException {
+		final var regions = RegionMap.label(despeckled(bitmap));
+		final var graph = new BoundaryGraph(regions);
+		// first, split every outline into shared segments
+		final var outlines = new ArrayList<List<SegmentRef>>(regions.getRegionCount());
+		for(int r = 0; r < regions.getRegionCount(); r++){
+			context.checkpoint();
+			final int vx = regions.getSeedX(r) + 1, vy = regions.getSeedY(r);
+			outlines.add(graph.addContour(r, vx, vy, walk(regions, r, vx, vy, RIGHT)));
+		}
+		final HoleIndex holes = getTraceHoles() ? HoleIndex.find(regions) : null;
+		final var holeOutlines = new ArrayList<List<SegmentRef>>(holes == null ? 0 : holes.getHoleCount());
+		for(int h = 0; holes != null && h < holes.getHoleCount(); h++){
+			holeOutlines.add(graph.addContour(holes.getRegion(h), holes.getStartX(h), holes.getStartY(h), holes.getSteps(h)));
+		}
+		// then fit each segment once, with a limited number of them in flight
+		final int maxInFlight = maxInFlight(executor);
+		final var fitting = new ArrayDeque<CompletableFuture<?>>(maxInFlight);
+		try {
+			for(var segment : graph.segments){
+				context.checkpoint();
+				submitBounded(() -> context.call(() -> segment.fit(this)), executor, fitting, maxInFlight);
+			}
+			while(!fitting.isEmpty()){
+				join(fitting.poll());
+			}
+		} catch(RuntimeException e){
+			cancelAll(fitting);
+			throw e;
+		}
+		// finally, assemble the shapes from their segments
+		for(int r = 0; r < outlines.size(); r++){
+			context.checkpoint();
+			final var shape = new BezierShape();
+			for(var ref : outlines.get(r)){
+				ref.appendTo(shape);
+			}
+			shape.setColor(regions.getValue(r));
+			shape.setClosed(true);
+			for(int h = holes == null ? -1 : holes.getFirstHole(r); h >= 0; h = holes.getNextHole(h)){
+				final var hole = new BezierShape();
+				for(var ref : holeOutlines.get(h)){
+					ref.appendTo(hole);
+				}
+				hole.setColor(regions.getValue(r));
+				hole.setClosed(true);
+				shape.addHole(hole);
+			}
+			consumer.accept(shape);
+			reportProgress(context, regions, r + 1);
+		}
+	}
+
+	/** A boundary segment between two junctions (or a closed loop with none) */
+	private static final class Segment {
+		/** the first vertex and the midpoint of each step (and the last vertex, unless closed) */
+		final Vec2[] points;
+		/** first vertex and direction of each step */
+		final int startX, startY;
+		final byte[] steps;
+		final boolean closedLoop;
+		BezierShape curves;
+		Segment(Vec2[] points, int startX, int startY, byte[] steps, boolean closedLoop){
+			this.points = points;
+			this.startX = startX;
+			this.startY = startY;
+			this.steps = steps;
+			this.closedLoop = closedLoop;
+		}
+		Segment fit(Tracer tracer){
+			final int minRun = tracer.getStraightRunLength();
+			if(minRun < 2){
+				curves = tracer.tracePath(points, closedLoop);
+			} else if(closedLoop){
+				curves = tracer.traceContour(new ChainCode(startX, startY, steps));
+			} else {
+				curves = fitWithStraightRuns(tracer, minRun);
+			}
+			return this;
+		}
+		/** traces each straight run of an open segment as a line, and fits the rest */
+		private BezierShape fitWithStraightRuns(final Tracer tracer, final int minRun){
+			final var shape = new BezierShape();
+			int fitted = 0; // index of the last point reached so far
+			for(int k = 0; k < steps.length; ){
+				int run = 1;
+				while(k + run < steps.length && steps[k + run] == steps[k]) run++;
+				if(run >= minRun){
+					// the midpoint of step k is points[k + 1]
+					appendOpenPath(tracer, shape, fitted, k + 1);
+					shape.add(new BezierCurve(points[k + 1], points[k + run]));
+					fitted = k + run;
+				}
+				k += run;
+			}
+			appendOpenPath(tracer, shape, fitted, points.length - 1);
+			return shape;
+		}
+		private void appendOpenPath(final Tracer tracer, final BezierShape shape, final int start, final int end){
+			if(end - start == 1){
+				shape.add(new BezierCurve(points[start], points[end])); // a corner next to a run
+			} else if(end - start > 1){
+				shape.addAll(tracer.tracePath(Arrays.copyOfRange(points, start, end + 1), false));
+			}
+		}
+	}
+
+	/** A segment as seen from one side, which may be opposite to how it was fitted */
+	private static final class SegmentRef {
+		final Segment segment;
+		final boolean reversed;
+		SegmentRef(Segment segment, boolean reversed){
+			this.segment = segment;
+			this.reversed = reversed;
+		}
+		void appendTo(final BezierShape shape){
+			final var curves = segment.curves;
+			if(reversed){
+				for(int i = curves.size() - 1; i >= 0; i--){
+					final var b = curves.get(i);
+					shape.add(new BezierCurve(b.getP4(), b.getP3(), b.getP2(), b.getP1()));
+				}
+			} else {
+				shape.addAll(curves);
+			}
+		}
+	}
+
+	/** Collects the boundary segments of a labeled raster */
+	private static final class BoundaryGraph {
+		final RegionMap regions;
+		final int vertexRowLength;
+		final List<Segment> segments = new ArrayList<>();
+		/** segments by their first directed edge, as seen from either side */
+		final Map<Long, SegmentRef> byFirstEdge = new HashMap<>();
+
+		BoundaryGraph(RegionMap regions){
+			this.regions = regions;
+			this.vertexRowLength = regions.getWidth() + 1;
+		}
+
+		/**
+		 * Splits a closed contour into segments, creating the segments that have
+		 * not been seen from the other side yet
+		 */
+		List<SegmentRef> addContour(final int region, final int vx, final int vy, final byte[] steps){
+			final int n = steps.length;
+			final int[] xs = new int[n], ys = new int[n]; // xs[i],ys[i] is the start of step i
+			final boolean[] junction = new boolean[n];
+			int firstJunction = -1;
+			int x = vx, y = vy;
+			for(int i = 0; i < n; i++){
+				xs[i] = x;
+				ys[i] = y;
+				junction[i] = isJunction(x, y);
+				if(junction[i] && firstJunction < 0) firstJunction = i;
+				x += dx(steps[i]);
+				y += dy(steps[i]);
+			}
+			final var refs = new ArrayList<SegmentRef>();
+			if(firstJunction < 0){
+				refs.add(loopSegment(xs, ys, steps));
+				return refs;
+			}
+			int start = firstJunction;
+			do{
+				int end = (start + 1) % n;
+				while(!junction[end]) end = (end + 1) % n;
+				final long key = edgeKey(xs[start], ys[start], steps[start]);
+				var ref = byFirstEdge.get(key);
+				if(ref == null){
+					final int count = ((end - start + n - 1) % n) + 1; // number of steps
+					final Vec2[] points = new Vec2[count + 2];
+					final byte[] segmentSteps = new byte[count];
+					points[0] = new Vec2(xs[start], ys[start]);
+					for(int k = 0; k < count; k++){
+						final int i = (start + k) % n;
+						points[k + 1] = midpoint(xs[i], ys[i], steps[i]);
+						segmentSteps[k] = steps[i];
+					}
+					points[count + 1] = new Vec2(xs[end], ys[end]);
+					final var segment = new Segment(points, xs[start], ys[start], segmentSteps, false);
+					segments.add(segment);
+					ref = new SegmentRef(segment, false);
+					byFirstEdge.put(key, ref);
+					final int last = (end + n - 1) % n;
+					byFirstEdge.put(edgeKey(xs[end], ys[end], (steps[last] + 2) & 3), new SegmentRef(segment, true));
+				}
+				refs.add(ref);
+				start = end;
+			} while(start != firstJunction);
+			return refs;
+		}
+
+		/** A contour with no junctions is shared as a whole */
+		private SegmentRef loopSegment(final int[] xs, final int[] ys, final byte[] steps){
+			// identify the loop by its smallest edge, oriented up or right
+			final int n = steps.length;
+			int first = 0;
+			long minKey = Long.MAX_VALUE;
+			for(int i = 0; i < n; i++){
+				final long k = undirectedEdgeKey(xs[i], ys[i], steps[i]);
+				if(k < minKey){
+					minKey = k;
+					first = i;
+				}
+			}
+			final boolean forward = steps[first] == UP || steps[first] == RIGHT;
+			var ref = byFirstEdge.get(minKey);
+			if(ref != null){
+				return forward ? ref : new SegmentRef(ref.segment, !ref.reversed);
+			}
+			final Vec2[] points = new Vec2[n];
+			final byte[] loopSteps = new byte[n];
+			for(int k = 0; k < n; k++){
+				final int i = (first + k) % n;
+				points[k] = midpoint(xs[i], ys[i], steps[i]);
+				loopSteps[k] = steps[i];
+			}
+			final var segment = new Segment(points, xs[first], ys[first], loopSteps, true);
+			segments.add(segment);
+			// stored as seen by a walker that crosses the smallest edge up or right
+			byFirstEdge.put(minKey, new SegmentRef(segment, !forward));
+			return new SegmentRef(segment, false);
+		}
+
+		/**
+		 * A junction is a vertex where three or more regions (or the outside)
+		 * meet, or where two regions meet diagonally
+		 */
+		private boolean isJunction(final int x, final int y){
+			final int sw = label(x - 1, y - 1), se = label(x, y - 1);
+			final int nw = label(x - 1, y), ne = label(x, y);
+			if(sw == ne && se == nw) return sw != se; // diagonal
+			int distinct = 1;
+			if(se != sw) distinct++;
+			if(nw != sw && nw != se) distinct++;
+			if(ne != sw && ne != se && ne != nw) distinct++;
+			return distinct >= 3;
+		}
+
+		private int label(final int x, final int y){
+			return regions.isInRange(x, y) ? regions.get(x, y) : -1;
+		}
+
+		private long edgeKey(final int x, final int y, final int dir){
+			return (((long) y * vertexRowLength + x) << 2) | dir;
+		}
+
+		private long undirectedEdgeKey(final int x, final int y, final int dir){
+			switch(dir){
+				case LEFT: return edgeKey(x - 1, y, RIGHT);
+				case DOWN: return edgeKey(x, y - 1, UP);
+				default: return edgeKey(x, y, dir);
+			}
+		}
+
+		private static Vec2 midpoint(final int x, final int y, final int dir){
+			return new Vec2(x + 0.5 * dx(dir), y + 0.5 * dy(dir));
+		}
+	}
+}
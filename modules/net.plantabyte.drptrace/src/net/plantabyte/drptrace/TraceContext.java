@@ -0,0 +1,156 @@
+package net.plantabyte.drptrace;
+
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.function.Supplier;
+
+/**
+ * A <code>TraceContext</code> controls a single call to
+ * <code>Tracer.traceAllShapes(...)</code> or
+ * <code>Tracer.traceEachShape(...)</code>: it can be cancelled from another
+ * thread, it can have a deadline, and it can report the progress of the trace
+ * to a <code>ProgressListener</code>. The tracer checks the context between
+ * patches and inside its curve fitting loops, and throws a
+ * <code>CancellationException</code> as soon as the context has been cancelled
+ * or its deadline has passed.
+ * <p>
+ * Example: give up on a raster after 10 seconds<br>
+ * <code>
+ * var context = new TraceContext();<br>
+ * context.setTimeout(Duration.ofSeconds(10));<br>
+ * try {<br>
+ * &nbsp;&nbsp;shapes = tracer.traceAllShapes(raster, context);<br>
+ * } catch(CancellationException e){<br>
+ * &nbsp;&nbsp;// too complex<br>
+ * }
+ * </code>
+ * </p>
+ * A context is meant to be used for only one trace. The methods of this class
+ * are thread-safe.
+ */
+public class TraceContext {
+	/**
+	 * Receives progress updates from a trace, on the thread that called the
+	 * <code>Tracer</code>.
+	 */
+	@FunctionalInterface
+	public interface ProgressListener {
+		/**
+		 * Called after each shape has been fitted.
+		 * @param pixelsScanned Number of pixels (in scan order) whose shapes have
+		 *                      all been fitted
+		 * @param totalPixels Number of pixels in the raster
+		 * @param shapesFitted Number of shapes fitted so far
+		 * @param totalShapes Number of shapes in the raster
+		 */
+		void progress(long pixelsScanned, long totalPixels, int shapesFitted, int totalShapes);
+	}
+
+	/** context of the trace running on each thread, for checks deep inside the curve fitting */
+	private static final ThreadLocal<TraceContext> CURRENT = new ThreadLocal<>();
+
+	private volatile boolean cancelled = false;
+	/** deadline as a <code>System.nanoTime()</code> value */
+	private volatile long deadline = 0;
+	private volatile boolean hasDeadline = false;
+	private volatile ProgressListener listener = null;
+
+	/**
+	 * Creates a context with no deadline and no progress listener
+	 */
+	public TraceContext(){
+		//
+	}
+
+	/**
+	 * Cancels the trace. The tracer will throw a
+	 * <code>CancellationException</code> at its next check.
+	 */
+	public void cancel(){
+		cancelled = true;
+	}
+
+	/**
+	 * Returns whether <code>cancel()</code> has been called
+	 * @return <code>true</code> if cancelled
+	 */
+	public boolean isCancelled(){
+		return cancelled;
+	}
+
+	/**
+	 * Sets a deadline relative to now, after which the trace is abandoned
+	 * @param timeout time allowed for the trace, starting now
+	 */
+	public void setTimeout(Duration timeout){
+		this.deadline = System.nanoTime() + timeout.toNanos();
+		this.hasDeadline = true;
+	}
+
+	/**
+	 * Returns whether the deadline (if any) has passed
+	 * @return <code>true</code> if a deadline was set and it has passed
+	 */
+	public boolean isExpired(){
+		return hasDeadline && System.nanoTime() - deadline > 0;
+	}
+
+	/**
+	 * Sets the listener which receives progress updates
+	 * @param listener a progress listener, or <code>null</code> for none
+	 */
+	public void setProgressListener(ProgressListener listener){
+		this.listener = listener;
+	}
+
+	/**
+	 * Checks whether the trace should stop
+	 * @throws CancellationException Thrown if this context has been cancelled or
+	 * its deadline has passed
+	 */
+	public void checkpoint() throws CancellationException {
+		if(cancelled) throw new CancellationException("Trace cancelled");
+		if(isExpired()) throw new CancellationException("Trace deadline exceeded");
+	}
+
+	/**
+	 * Checks the context of the trace running on the calling thread, if there
+	 * is one. Implementations of <code>Tracer.tracePath(Vec2[], boolean)</code>
+	 * should call this inside long-running loops so that traces can be
+	 * cancelled while a large shape is being fitted.
+	 * @throws CancellationException Thrown if the current trace has been
+	 * cancelled or its deadline has passed
+	 */
+	public static void checkCurrent() throws CancellationException {
+		final var context = CURRENT.get();
+		if(context != null) context.checkpoint();
+	}
+
+	/**
+	 * Runs a task as part of this trace on the calling thread, so that
+	 * <code>checkCurrent()</code> checks this context
+	 * @param task the task to run
+	 * @param <T> the result type
+	 * @return the result of <code>task</code>
+	 * @throws CancellationException Thrown if the trace has been cancelled or
+	 * its deadline has passed
+	 */
+	<T> T call(final Supplier<T> task) throws CancellationException {
+		checkpoint();
+		final var previous = CURRENT.get();
+		CURRENT.set(this);
+		try {
+			return task.get();
+		} finally {
+			if(previous == null) CURRENT.remove(); else CURRENT.set(previous);
+		}
+	}
+
+	/**
+	 * Reports progress to the listener, if there is one
+	 */
+	void progress(long pixelsScanned, long totalPixels, int shapesFitted, int totalShapes){
+		final var l = listener;
+		if(l != null) l.progress(pixelsScanned, totalPixels, shapesFitted, totalShapes);
+	}
+}
@@ -0,0 +1,276 @@
+package net.plantabyte.drptrace;
+
+import net.plantabyte.drptrace.geometry.BezierShape;
+import net.plantabyte.drptrace.intmaps.RegionMap;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A <code>TraceSession</code> keeps the result of tracing an <code>IntMap</code>
+ * so that, after a few pixels of the raster have been changed, only the shapes
+ * touching the changed pixels have to be traced again. This is intended for
+ * interactive editing, where re-tracing the whole raster after every edit
+ * would be too slow.
+ * <p>
+ * Usage: create a session for a raster, then after each edit of the raster
+ * call <code>update(x, y, width, height)</code> with a rectangle that encloses
+ * every changed pixel. Shapes that do not touch that rectangle are reused
+ * as-is (the same <code>BezierShape</code> instances are returned again).
+ * </p>
+ * The shapes are traced without holes and without merging small patches,
+ * regardless of <code>Tracer.setTraceHoles(boolean)</code> and
+ * <code>Tracer.setMinimumArea(int)</code>. This class is not thread-safe.
+ * <p>
+ * Supported tracers are those which fit each shape from its own outline:
+ * <code>IntervalTracer</code>, <code>PolylineTracer</code>,
+ * <code>TiledTracer</code>, and a <code>CachingTracer</code> wrapping any of
+ * these (which is traced with the wrapped tracer). A
+ * <code>TopologyTracer</code>, or a <code>CachingTracer</code> wrapping one, is
+ * rejected: its shapes share their borders with their neighbors, so an edit
+ * would change the curves of shapes outside the updated area.
+ * </p>
+ */
+public class TraceSession {
+	private final Tracer tracer;
+	private final IntMap bitmap;
+	private final int width;
+	private final int height;
+	/** region id of each pixel (row-major); ids stay the same across updates */
+	private final int[] labels;
+	/** per region id: scan index of the first pixel, bounding box, value and shape */
+	private int[] seeds;
+	private int[] minX, minY, maxX, maxY;
+	private BezierShape[] regionShapes;
+	/** ids no longer in use, to be handed out again */
+	private int[] freeIds = new int[16];
+	private int freeCount = 0;
+	private int idCount;
+	/** region ids in scan order of their seeds, and their shapes in the same order */
+	private int[] order;
+	private BezierShape[] shapes;
+
+	/**
+	 * Creates a new session and traces every shape of the given raster.
+	 * @param tracer The <code>Tracer</code> used to trace the shapes (see the
+	 *               class description for the supported tracers)
+	 * @param bitmap The raster to trace, which will be modified by the caller
+	 *               between calls to <code>update(...)</code>
+	 * @throws IllegalArgumentException Thrown if any of the input arguments are
+	 * invalid (eg too few points to trace), or if <code>tracer</code> does not
+	 * fit each shape from its own outline (eg a <code>TopologyTracer</code>)
+	 */
+	public TraceSession(Tracer tracer, IntMap bitmap) throws IllegalArgumentException {
+		final Tracer fitter = tracer.outlineFitter();
+		if(fitter == null){
+			throw new IllegalArgumentException(String.format("%s does not fit each shape from its own outline, so its shapes cannot be updated by a TraceSession",
+					tracer.getClass().getSimpleName()));
+		}
+		this.tracer = fitter;
+		this.bitmap = bitmap;
+		this.width = bitmap.getWidth();
+		this.height = bitmap.getHeight();
+		final RegionMap regions = RegionMap.label(bitmap);
+		final int n = regions.getRegionCount();
+		this.labels = new int[width * height];
+		regions.getRegion(0, 0, width, height, labels, 0, width);
+		this.idCount = n;
+		this.seeds = new int[n];
+		this.minX = new int[n];
+		this.minY = new int[n];
+		this.maxX = new int[n];
+		this.maxY = new int[n];
+		this.regionShapes = new BezierShape[n];
+		this.order = new int[n];
+		this.shapes = new BezierShape[n];
+		for(int r = 0; r < n; r++){
+			seeds[r] = regions.getSeedY(r) * width + regions.getSeedX(r);
+			minX[r] = regions.getMinX(r);
+			minY[r] = regions.getMinY(r);
+			maxX[r] = regions.getMaxX(r);
+			maxY[r] = regions.getMaxY(r);
+			regionShapes[r] = shapes[r] = fitter.traceRegion(bitmap, regions, r);
+			order[r] = r;
+		}
+	}
+
+	/**
+	 * Gets the traced shapes, in the same order as
+	 * <code>Tracer.traceAllShapes(IntMap)</code> would return them (the first
+	 * index is in the back and the last index is in the front).
+	 * @return An unmodifiable list of <code>BezierShape</code>s
+	 */
+	public List<BezierShape> getShapes(){
+		return Collections.unmodifiableList(Arrays.asList(shapes));
+	}
+
+	/**
+	 * Re-traces the shapes affected by a change to the raster. All pixels that
+	 * have changed since the last update must lie inside the given rectangle.
+	 * Only the patches of color that contain or border a pixel of the rectangle
+	 * are labeled and traced again; every other shape is reused, and the rest
+	 * of the raster is not read at all.
+	 * @param x X coordinate of the first column of the changed area
+	 * @param y Y coordinate of the first row of the changed area
+	 * @param width width of the changed area
+	 * @param height height of the changed area
+	 * @return An unmodifiable list of all <code>BezierShape</code>s after the
+	 * update (same as <code>getShapes()</code>)
+	 * @throws IllegalArgumentException Thrown if any of the input arguments are
+	 * invalid (eg an empty area, or too few points to trace)
+	 * @throws ArrayIndexOutOfBoundsException Thrown if the area is not inside
+	 * the raster
+	 */
+	public List<BezierShape> update(int x, int y, int width, int height)
+			throws IllegalArgumentException, ArrayIndexOutOfBoundsException {
+		if(width < 1 || height < 1){
+			throw new IllegalArgumentException(String.format("Invalid update area: %sx%s (must be at least 1x1)", width, height));
+		}
+		bitmap.checkRegion(x, y, width, height);
+		final int w = this.width;
+		// any region that has a pixel in or next to the changed area may have
+		// changed shape; every other region is still exactly the same patch
+		final boolean[] affected = new boolean[idCount];
+		int[] removed = new int[8];
+		int removedCount = 0;
+		final int x0 = Math.max(0, x - 1), y0 = Math.max(0, y - 1);
+		final int x1 = Math.min(w, x + width + 1), y1 = Math.min(this.height, y + height + 1);
+		for(int py = y0; py < y1; py++){
+			for(int px = x0; px < x1; px++){
+				final int id = labels[py * w + px];
+				if(!affected[id]){
+					affected[id] = true;
+					if(removedCount == removed.length) removed = Arrays.copyOf(removed, removedCount * 2);
+					removed[removedCount++] = id;
+				}
+			}
+		}
+		// unlabel the pixels of the affected regions
+		final int[] bounds = new int[4 * removedCount];
+		for(int k = 0; k < removedCount; k++){
+			final int id = removed[k];
+			bounds[4 * k] = minX[id];
+			bounds[4 * k + 1] = minY[id];
+			bounds[4 * k + 2] = maxX[id];
+			bounds[4 * k + 3] = maxY[id];
+			for(int py = minY[id]; py <= maxY[id]; py++){
+				for(int i = py * w + minX[id], end = py * w + maxX[id]; i <= end; i++){
+					if(labels[i] == id) labels[i] = -1;
+				}
+			}
+			freeId(id);
+		}
+		// label the unlabeled pixels again; no other region can join them, since
+		// every pixel next to a changed pixel was unlabeled
+		int[] added = new int[8];
+		int addedCount = 0;
+		int[] stack = new int[64];
+		for(int k = 0; k < removedCount; k++){
+			for(int py = bounds[4 * k + 1]; py <= bounds[4 * k + 3]; py++){
+				for(int i = py * w + bounds[4 * k], end = py * w + bounds[4 * k + 2]; i <= end; i++){
+					if(labels[i] != -1) continue;
+					final int id = newId();
+					if(addedCount == added.length) added = Arrays.copyOf(added, addedCount * 2);
+					added[addedCount++] = id;
+					stack = fill(id, i, stack);
+				}
+			}
+		}
+		for(int k = 0; k < addedCount; k++){
+			final int id = added[k];
+			regionShapes[id] = tracer.traceRegion(bitmap, seeds[id] % w, seeds[id] / w);
+		}
+		// merge the new regions into the scan order of the kept ones
+		final long[] bySeed = new long[addedCount];
+		for(int k = 0; k < addedCount; k++){
+			bySeed[k] = (long) seeds[added[k]] << 32 | added[k];
+		}
+		Arrays.sort(bySeed);
+		final int[] newOrder = new int[order.length - removedCount + addedCount];
+		int n = 0, k = 0;
+		for(final int id : order){
+			if(affected[id]) continue;
+			while(k < addedCount && (bySeed[k] >>> 32) < seeds[id]) newOrder[n++] = (int) bySeed[k++];
+			newOrder[n++] = id;
+		}
+		while(k < addedCount) newOrder[n++] = (int) bySeed[k++];
+		final var newShapes = new BezierShape[newOrder.length];
+		for(int i = 0; i < newOrder.length; i++){
+			newShapes[i] = regionShapes[newOrder[i]];
+		}
+		this.order = newOrder;
+		this.shapes = newShapes;
+		return getShapes();
+	}
+
+	/**
+	 * Gives the unlabeled patch containing a pixel a new region id, and records
+	 * its seed and bounding box
+	 * @param id the new region id
+	 * @param start scan index of a pixel of the patch
+	 * @param stack scratch space for the fill
+	 * @return the scratch space, which may have grown
+	 */
+	private int[] fill(final int id, final int start, int[] stack){
+		final int w = this.width;
+		final int value = bitmap.get(start % w, start / w);
+		int seed = start, x0 = start % w, y0 = start / w, x1 = x0, y1 = y0;
+		int top = 0;
+		stack[top++] = start;
+		labels[start] = id;
+		while(top > 0){
+			final int i = stack[--top];
+			final int px = i % w, py = i / w;
+			if(i < seed) seed = i;
+			if(px < x0) x0 = px;
+			if(px > x1) x1 = px;
+			if(py < y0) y0 = py;
+			if(py > y1) y1 = py;
+			if(stack.length - top < 4) stack = Arrays.copyOf(stack, stack.length * 2);
+			// only pixels that were unlabeled can be part of the new patch
+			if(px > 0 && labels[i - 1] == -1 && bitmap.get(px - 1, py) == value){
+				labels[i - 1] = id;
+				stack[top++] = i - 1;
+			}
+			if(px + 1 < w && labels[i + 1] == -1 && bitmap.get(px + 1, py) == value){
+				labels[i + 1] = id;
+				stack[top++] = i + 1;
+			}
+			if(py > 0 && labels[i - w] == -1 && bitmap.get(px, py - 1) == value){
+				labels[i - w] = id;
+				stack[top++] = i - w;
+			}
+			if(py + 1 < height && labels[i + w] == -1 && bitmap.get(px, py + 1) == value){
+				labels[i + w] = id;
+				stack[top++] = i + w;
+			}
+		}
+		seeds[id] = seed;
+		minX[id] = x0;
+		minY[id] = y0;
+		maxX[id] = x1;
+		maxY[id] = y1;
+		return stack;
+	}
+
+	private int newId(){
+		if(freeCount > 0) return freeIds[--freeCount];
+		if(idCount == seeds.length){
+			final int size = Math.max(16, idCount * 2);
+			seeds = Arrays.copyOf(seeds, size);
+			minX = Arrays.copyOf(minX, size);
+			minY = Arrays.copyOf(minY, size);
+			maxX = Arrays.copyOf(maxX, size);
+			maxY = Arrays.copyOf(maxY, size);
+			regionShapes = Arrays.copyOf(regionShapes, size);
+		}
+		return idCount++;
+	}
+
+	private void freeId(final int id){
+		regionShapes[id] = null;
+		if(freeCount == freeIds.length) freeIds = Arrays.copyOf(freeIds, freeCount * 2);
+		freeIds[freeCount++] = id;
+	}
+}
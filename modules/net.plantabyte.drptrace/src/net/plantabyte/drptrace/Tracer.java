@@ -2,14 +2,30 @@ package net.plantabyte.drptrace;
 
 import net.plantabyte.drptrace.geometry.BezierCurve;
 import net.plantabyte.drptrace.geometry.BezierShape;
+import net.plantabyte.drptrace.geometry.ChainCode;
 import net.plantabyte.drptrace.geometry.Vec2;
-import net.plantabyte.drptrace.intmaps.ZOrderBinaryMap;
+import net.plantabyte.drptrace.intmaps.RegionMap;
+import net.plantabyte.drptrace.trace.ContourExtractor;
+import net.plantabyte.drptrace.trace.HoleIndex;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+import java.util.function.IntUnaryOperator;
+import java.util.function.Supplier;
 
-import static net.plantabyte.drptrace.intmaps.IntMapUtil.floodFill;
-import static net.plantabyte.drptrace.trace.TraceMachine.followEdge;
+import static net.plantabyte.drptrace.trace.TraceMachine.followEdgeChain;
 
 /**
  * The Tracer superclass provides a common API for all classes that can turn a series of points into a
@@ -24,8 +40,112 @@ import static net.plantabyte.drptrace.trace.TraceMachine.followEdge;
  * 3. Call <code>Tracer.traceAllShapes(IntMap)</code> to trace the raster
  * to a list of <code>BezierShape</code>s<br>
  * 4. Read the bezier curves from the <code>BezierShape</code> list<br>
+ * <p>
+ * For large rasters, <code>traceAllShapesParallel(IntMap)</code> and
+ * <code>traceAllShapes(IntMap, Executor)</code> fit the discovered outlines on
+ * multiple threads, which requires that <code>tracePath(Vec2[], boolean)</code>
+ * is safe to call concurrently (the provided implementations are). The
+ * <code>traceEachShape(...)</code> methods deliver each shape to a
+ * <code>Consumer</code> as soon as it is fitted instead of building a list.
+ * <p>
+ * By default, each shape is only the outer contour of its patch of color, and
+ * any patches inside of it are drawn on top of it. With
+ * <code>setTraceHoles(true)</code>, each shape also carries its inner contours
+ * as holes (see <code>BezierShape.getHoles()</code>), so that no shape is
+ * painted over by another. <code>setMinimumArea(int)</code> removes noise by
+ * merging tiny patches into their surroundings before they are traced.
+ * <p>
+ * Long traces can be cancelled, given a deadline or monitored by passing a
+ * <code>TraceContext</code> to <code>traceAllShapes(...)</code> or
+ * <code>traceEachShape(...)</code>. Subclasses that override the tracing
+ * methods should override the variants which take a context, since the others
+ * delegate to them.
  */
 public abstract class Tracer {
+	/** add inner contours to the traced shapes? */
+	private boolean traceHoles = false;
+	/** patches with fewer pixels are merged into their neighbors */
+	private int minimumArea = 0;
+	/** straight runs of at least this many pixel edges become a single line */
+	private int straightRunLength = 0;
+	
+	/**
+	 * Sets whether <code>traceAllShapes(...)</code> and
+	 * <code>traceEachShape(...)</code> add the inner contours of each patch of
+	 * color to its shape as holes. When the whole contour of a hole borders a
+	 * single patch, the fitted outline of that patch is reused (reversed) for
+	 * the hole rather than fitting the same boundary twice. Default is
+	 * <code>false</code>.
+	 * @param traceHoles <code>true</code> to trace holes
+	 */
+	public void setTraceHoles(boolean traceHoles){
+		this.traceHoles = traceHoles;
+	}
+	
+	/**
+	 * Returns whether the traced shapes will include their holes
+	 * @return <code>true</code> if holes are traced
+	 * @see #setTraceHoles(boolean)
+	 */
+	public boolean getTraceHoles(){
+		return traceHoles;
+	}
+	
+	/**
+	 * Sets the minimum area (in pixels) of a traced patch, which is useful for
+	 * removing noise from scanned images. Before any outline is traced, every
+	 * patch with fewer pixels than this is merged into the neighboring patch
+	 * with which it shares the longest border, so specks never reach the curve
+	 * fitting (similar to the "turdsize" option of potrace). A patch bordering
+	 * only other small patches is kept. Default is 0 (no patches are merged).
+	 * @param minimumArea minimum number of pixels per patch (0 or 1 to disable)
+	 * @throws IllegalArgumentException Thrown if <code>minimumArea</code> is
+	 * negative
+	 */
+	public void setMinimumArea(int minimumArea) throws IllegalArgumentException {
+		if(minimumArea < 0) throw new IllegalArgumentException(String.format("Invalid minimum area: %s (must not be negative)", minimumArea));
+		this.minimumArea = minimumArea;
+	}
+	
+	/**
+	 * Returns the minimum area (in pixels) of a traced patch
+	 * @return minimum number of pixels per patch
+	 * @see #setMinimumArea(int)
+	 */
+	public int getMinimumArea(){
+		return minimumArea;
+	}
+	
+	/**
+	 * Sets the length (in pixel edges) from which a straight run of an outline
+	 * is traced as a single straight <code>BezierCurve</code>, which is much
+	 * faster and more accurate for blocky images such as pixel art, screenshots
+	 * and maps. The run is collapsed to its two end points before any curves
+	 * are fitted, and only the rest of the outline between the straight runs is
+	 * passed to <code>tracePath(Vec2[], boolean)</code> (as open paths). Default
+	 * is 0 (outlines are fitted as a whole).
+	 * @param straightRunLength minimum number of pixel edges in a straight line
+	 *                          (at least 2), or 0 to disable
+	 * @throws IllegalArgumentException Thrown if <code>straightRunLength</code>
+	 * is negative or 1
+	 */
+	public void setStraightRunLength(int straightRunLength) throws IllegalArgumentException {
+		if(straightRunLength < 0 || straightRunLength == 1){
+			throw new IllegalArgumentException(String.format("Invalid straight run length: %s (must be 0 or at least 2)", straightRunLength));
+		}
+		this.straightRunLength = straightRunLength;
+	}
+	
+	/**
+	 * Returns the length (in pixel edges) from which a straight run of an
+	 * outline is traced as a single straight line
+	 * @return minimum number of pixel edges, or 0 if disabled
+	 * @see #setStraightRunLength(int)
+	 */
+	public int getStraightRunLength(){
+		return straightRunLength;
+	}
+	
 	/**
 	 * Traces a series of points as a sequence of bezier curves, looping back to
 	 * the beginning to form a closed loop.
@@ -68,6 +188,76 @@ public abstract class Tracer {
 	public abstract BezierShape tracePath(Vec2[] pathPoints, boolean closedLoop)
 			throws IllegalArgumentException;
 
+	/**
+	 * Traces a closed pixel outline, such as one returned by
+	 * <code>followContour(IntMap, int, int)</code>, as a closed loop of bezier
+	 * curves through the midpoints of its pixel edges. Straight runs are traced
+	 * as lines if <code>setStraightRunLength(int)</code> is set.
+	 * @param contour The outline to trace
+	 * @return Returns a list of <code>BezierCurve</code>s tracing the outline
+	 * @throws IllegalArgumentException Thrown if any of the input arguments are
+	 * invalid (eg too few points to trace)
+	 */
+	public BezierShape traceContour(ChainCode contour) throws IllegalArgumentException {
+		final int n = contour.length();
+		if(straightRunLength < 2 || n < 3) return tracePath(contour.toPoints(), true);
+		// start where the direction changes, so that no run wraps around the end
+		int first = 0;
+		while(first < n && contour.getStep(first) == contour.getStep(n - 1)) first++;
+		if(first == n) return tracePath(contour.toPoints(), true);
+		final var points = contour.asPoints();
+		final var shape = new BezierShape();
+		int gapStart = -1; // index (from first) of the last point of the previous run
+		int firstRun = -1;
+		for(int k = 0; k < n; ){
+			final int i = (first + k) % n;
+			int run = contour.getRunLength(i);
+			if(i + run == n) run += first; // the steps before first continue this run
+			if(run >= straightRunLength){
+				if(gapStart >= 0) appendOpenPath(shape, points, first, gapStart, k);
+				if(firstRun < 0) firstRun = k;
+				shape.add(new BezierCurve(points.get(i), points.get((i + run - 1) % n)));
+				gapStart = k + run - 1;
+			}
+			k += run;
+		}
+		if(firstRun < 0) return tracePath(contour.toPoints(), true);
+		appendOpenPath(shape, points, first, gapStart, n + firstRun);
+		shape.setClosed(true);
+		return shape;
+	}
+
+	/** fits the points from index <code>start</code> to <code>end</code> (inclusive, counted from <code>offset</code> and wrapping around) */
+	private void appendOpenPath(final BezierShape shape, final List<Vec2> points, final int offset, final int start, final int end){
+		final int n = points.size();
+		final var path = new Vec2[end - start + 1];
+		for(int k = 0; k < path.length; k++){
+			path[k] = points.get((offset + start + k) % n);
+		}
+		if(path.length == 2){
+			shape.add(new BezierCurve(path[0], path[1])); // a corner between two runs
+		} else {
+			shape.addAll(tracePath(path, false));
+		}
+	}
+
+	/**
+	 * Follows the outer edge of the patch of color containing pixel (x, y)
+	 * counter-clockwise, without fitting any curves. The outline is only 2 bits
+	 * per pixel edge, so it can be kept or sent elsewhere and traced later with
+	 * <code>traceContour(ChainCode)</code>. When following many contours of the
+	 * same raster, wrapping it in a <code>BorderedIntMap</code> first lets every
+	 * step skip the range checks.
+	 * @param bitmap The raster
+	 * @param x X coordinate of the first pixel of the patch in scan order (the
+	 *          lowest pixel with the lowest Y, then the lowest X)
+	 * @param y Y coordinate of the first pixel of the patch in scan order
+	 * @return The outline of the patch
+	 */
+	public static ChainCode followContour(IntMap bitmap, int x, int y){
+		return followEdgeChain(bitmap, x, y);
+	}
+
 	/**
 	 * Traces every shape (including the background) of the provided raster bitmap.
 	 * @param bitmap A 2D array of integer values, such that each contiguous area
@@ -80,29 +270,475 @@ public abstract class Tracer {
 	 * invalid (eg too few points to trace)
 	 */
 	public List<BezierShape> traceAllShapes(final IntMap bitmap) throws IllegalArgumentException {
-		final int w = bitmap.getWidth(), h = bitmap.getHeight();
-		var searchedMap = new ZOrderBinaryMap(w, h);
+		return traceAllShapes(bitmap, new TraceContext());
+	}
+
+	/**
+	 * Traces every shape (including the background) of the provided raster
+	 * bitmap under the control of a <code>TraceContext</code>, which may cancel
+	 * the trace, impose a deadline and receive progress updates.
+	 * @param bitmap A 2D array of integer values, such that each contiguous area
+	 *               of a number is considered to be a single shape.
+	 * @param context The context of this trace
+	 * @return Returns a list of <code>BezierShape</code> objects, each representing
+	 * one shape from the raster. The order is important: the shapes should be drawn
+	 * in the order such that the first index is in the back and the last index is
+	 * in the front.
+	 * @throws IllegalArgumentException Thrown if any of the input arguments are
+	 * invalid (eg too few points to trace)
+	 * @throws CancellationException Thrown if the context was cancelled or its
+	 * deadline passed before the trace was finished
+	 */
+	public List<BezierShape> traceAllShapes(final IntMap bitmap, final TraceContext context)
+			throws IllegalArgumentException, CancellationException {
 		var output = new LinkedList<BezierShape>();
-		// algorithm: flood fill each patch, and for
-		// each flood fill, trace the outer edge
-		for(int y = 0; y < h; y++){
-			for(int x = 0; x < w; x++){
-				if(searchedMap.get(x, y) == 0){ // pixel not yet searched
-					// first, find a patch of color in the bitmap
-					int color = bitmap.get(x, y);
-					// next, trace the outer perimeter of the color patch
-					var circumference = followEdge(bitmap, x, y);
-					var vectorized = traceClosedPath(circumference);
-					vectorized.setColor(color);
-					vectorized.setClosed(true);
-					output.add(vectorized);
-					// finally, flood-fill the patch in the searched map
-					floodFill(bitmap, searchedMap, x, y);
-					searchedMap.set(x, y, (byte)1);
+		traceEachShape(bitmap, context, output::add);
+		return output;
+	}
+
+	/**
+	 * Traces every shape (including the background) of the provided raster bitmap,
+	 * handing each <code>BezierShape</code> to the given consumer as soon as it
+	 * has been fitted instead of collecting them in a list. The shapes are
+	 * delivered in the same order as <code>traceAllShapes(IntMap)</code> would
+	 * return them (first is in the back, last is in the front), and are not
+	 * referenced by the tracer afterwards.
+	 * @param bitmap A 2D array of integer values, such that each contiguous area
+	 *               of a number is considered to be a single shape.
+	 * @param consumer Receives each shape, in back-to-front order
+	 * @throws IllegalArgumentException Thrown if any of the input arguments are
+	 * invalid (eg too few points to trace)
+	 */
+	public void traceEachShape(final IntMap bitmap, final Consumer<BezierShape> consumer) throws IllegalArgumentException {
+		traceEachShape(bitmap, new TraceContext(), consumer);
+	}
+
+	/**
+	 * Traces every shape (including the background) of the provided raster
+	 * bitmap under the control of a <code>TraceContext</code>, handing each
+	 * <code>BezierShape</code> to the given consumer as soon as it has been
+	 * fitted. The context is checked between shapes and while fitting, and
+	 * its progress listener is called after each shape.
+	 * @param bitmap A 2D array of integer values, such that each contiguous area
+	 *               of a number is considered to be a single shape.
+	 * @param context The context of this trace
+	 * @param consumer Receives each shape, in back-to-front order
+	 * @throws IllegalArgumentException Thrown if any of the input arguments are
+	 * invalid (eg too few points to trace)
+	 * @throws CancellationException Thrown if the context was cancelled or its
+	 * deadline passed before the trace was finished
+	 */
+	public void traceEachShape(final IntMap bitmap, final TraceContext context, final Consumer<BezierShape> consumer)
+			throws IllegalArgumentException, CancellationException {
+		final IntMap source = despeckled(bitmap);
+		if(traceHoles){
+			traceEachShapeWithHoles(source, Runnable::run, context, consumer);
+			return;
+		}
+		var regions = RegionMap.label(source);
+		// algorithm: label each patch, and for
+		// each patch, trace the outer edge from its seed pixel
+		for(int r = 0; r < regions.getRegionCount(); r++){
+			final int region = r;
+			consumer.accept(context.call(() -> traceRegion(source, regions, region)));
+			reportProgress(context, regions, r + 1);
+		}
+	}
+
+	/**
+	 * Traces every shape (including the background) of the provided raster bitmap,
+	 * fitting the bezier curves on the common <code>ForkJoinPool</code>. The
+	 * output is identical to that of <code>traceAllShapes(IntMap)</code>.
+	 * @param bitmap A 2D array of integer values, such that each contiguous area
+	 *               of a number is considered to be a single shape.
+	 * @return Returns a list of <code>BezierShape</code> objects, each representing
+	 * one shape from the raster. The order is important: the shapes should be drawn
+	 * in the order such that the first index is in the back and the last index is
+	 * in the front.
+	 * @throws IllegalArgumentException Thrown if any of the input arguments are
+	 * invalid (eg too few points to trace)
+	 */
+	public List<BezierShape> traceAllShapesParallel(final IntMap bitmap) throws IllegalArgumentException {
+		return traceAllShapes(bitmap, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Traces every shape (including the background) of the provided raster bitmap,
+	 * using the given <code>Executor</code> to fit the bezier curves. The
+	 * outlines are found on the calling thread and only the curve fitting is
+	 * handed to the executor, so the <code>IntMap</code> is never read by the
+	 * worker threads and does not need to be thread-safe. The exception is an
+	 * <code>ImmutableIntMap</code> (see <code>IntMap.freeze()</code>), which
+	 * is safe to share: its outlines are found by sweeping bands of rows on
+	 * the executor as well (unless tracing holes). The output is identical to
+	 * that of <code>traceAllShapes(IntMap)</code>.
+	 * @param bitmap A 2D array of integer values, such that each contiguous area
+	 *               of a number is considered to be a single shape.
+	 * @param executor The executor which will run the curve fitting tasks (eg
+	 *                 <code>ForkJoinPool.commonPool()</code>)
+	 * @return Returns a list of <code>BezierShape</code> objects, each representing
+	 * one shape from the raster. The order is important: the shapes should be drawn
+	 * in the order such that the first index is in the back and the last index is
+	 * in the front.
+	 * @throws IllegalArgumentException Thrown if any of the input arguments are
+	 * invalid (eg too few points to trace)
+	 */
+	public List<BezierShape> traceAllShapes(final IntMap bitmap, final Executor executor) throws IllegalArgumentException {
+		return traceAllShapes(bitmap, executor, new TraceContext());
+	}
+
+	/**
+	 * Traces every shape (including the background) of the provided raster bitmap,
+	 * using the given <code>Executor</code> to fit the bezier curves, under the
+	 * control of a <code>TraceContext</code>.
+	 * @param bitmap A 2D array of integer values, such that each contiguous area
+	 *               of a number is considered to be a single shape.
+	 * @param executor The executor which will run the curve fitting tasks (eg
+	 *                 <code>ForkJoinPool.commonPool()</code>)
+	 * @param context The context of this trace
+	 * @return Returns a list of <code>BezierShape</code> objects, each representing
+	 * one shape from the raster. The order is important: the shapes should be drawn
+	 * in the order such that the first index is in the back and the last index is
+	 * in the front.
+	 * @throws IllegalArgumentException Thrown if any of the input arguments are
+	 * invalid (eg too few points to trace)
+	 * @throws CancellationException Thrown if the context was cancelled or its
+	 * deadline passed before the trace was finished
+	 */
+	public List<BezierShape> traceAllShapes(final IntMap bitmap, final Executor executor, final TraceContext context)
+			throws IllegalArgumentException, CancellationException {
+		var output = new ArrayList<BezierShape>();
+		traceEachShape(bitmap, executor, context, output::add);
+		return output;
+	}
+
+	/**
+	 * Traces every shape (including the background) of the provided raster bitmap,
+	 * using the given <code>Executor</code> to fit the bezier curves and handing
+	 * each finished <code>BezierShape</code> to the given consumer. The consumer
+	 * is always called on the calling thread and in the same order as
+	 * <code>traceAllShapes(IntMap)</code> would return the shapes. Only a limited
+	 * number of outlines are in flight at any time (four per thread of the
+	 * executor), so memory usage does not grow with the total number of shapes.
+	 * When tracing holes, the outline of a region that fills a hole is fitted
+	 * together with the shape around it, and is kept until that region is
+	 * delivered.
+	 * @param bitmap A 2D array of integer values, such that each contiguous area
+	 *               of a number is considered to be a single shape.
+	 * @param executor The executor which will run the curve fitting tasks (eg
+	 *                 <code>ForkJoinPool.commonPool()</code>)
+	 * @param consumer Receives each shape, in back-to-front order
+	 * @throws IllegalArgumentException Thrown if any of the input arguments are
+	 * invalid (eg too few points to trace)
+	 */
+	public void traceEachShape(final IntMap bitmap, final Executor executor, final Consumer<BezierShape> consumer)
+			throws IllegalArgumentException {
+		traceEachShape(bitmap, executor, new TraceContext(), consumer);
+	}
+
+	/**
+	 * Traces every shape (including the background) of the provided raster bitmap,
+	 * using the given <code>Executor</code> to fit the bezier curves, under the
+	 * control of a <code>TraceContext</code>. The context is checked by every
+	 * fitting task as well as on the calling thread, and the progress listener
+	 * is called on the calling thread as the shapes are delivered. When the
+	 * trace is cancelled, the fitting tasks that have not started yet are
+	 * skipped.
+	 * @param bitmap A 2D array of integer values, such that each contiguous area
+	 *               of a number is considered to be a single shape.
+	 * @param executor The executor which will run the curve fitting tasks (eg
+	 *                 <code>ForkJoinPool.commonPool()</code>)
+	 * @param context The context of this trace
+	 * @param consumer Receives each shape, in back-to-front order
+	 * @throws IllegalArgumentException Thrown if any of the input arguments are
+	 * invalid (eg too few points to trace)
+	 * @throws CancellationException Thrown if the context was cancelled or its
+	 * deadline passed before the trace was finished
+	 */
+	public void traceEachShape(final IntMap bitmap, final Executor executor, final TraceContext context,
+			final Consumer<BezierShape> consumer) throws IllegalArgumentException, CancellationException {
+		final IntMap source = despeckled(bitmap);
+		if(traceHoles){
+			traceEachShapeWithHoles(source, executor, context, consumer);
+			return;
+		}
+		if(bitmap instanceof ImmutableIntMap){
+			// the frozen raster (and the despeckled view of it) never changes, so
+			// its rows can be swept in bands on the executor
+			final var contours = ContourExtractor.scan(source, executor);
+			fitInOrder(contours.getContourCount(), contours::getContour, contours::getValue,
+					delivered -> reportProgress(context, source, contours, delivered), executor, context, consumer);
+		} else {
+			// same search as traceEachShape(IntMap, Consumer), on this thread
+			final var regions = RegionMap.label(source);
+			fitInOrder(regions.getRegionCount(), r -> followEdgeChain(source, regions.getSeedX(r), regions.getSeedY(r)),
+					regions::getValue, delivered -> reportProgress(context, regions, delivered), executor, context, consumer);
+		}
+	}
+
+	/**
+	 * Fits the outlines on the executor and delivers the shapes in order, with
+	 * at most <code>maxInFlight(executor)</code> of them in flight
+	 * @param count number of outlines
+	 * @param outline gets each outline (on the calling thread)
+	 * @param color gets the color of each outline
+	 * @param progress called with the number of shapes delivered so far
+	 */
+	private void fitInOrder(final int count, final IntFunction<ChainCode> outline, final IntUnaryOperator color,
+			final IntConsumer progress, final Executor executor, final TraceContext context,
+			final Consumer<BezierShape> consumer){
+		final int maxInFlight = maxInFlight(executor);
+		var pending = new ArrayDeque<CompletableFuture<BezierShape>>(maxInFlight);
+		int delivered = 0;
+		try {
+			for(int r = 0; r < count; r++){
+				context.checkpoint();
+				final int value = color.applyAsInt(r);
+				final var contour = outline.apply(r);
+				pending.add(CompletableFuture.supplyAsync(() -> context.call(() -> fitShape(contour, value)), executor));
+				while(pending.size() >= maxInFlight || (!pending.isEmpty() && pending.peek().isDone())){
+					consumer.accept(join(pending.poll()));
+					progress.accept(++delivered);
 				}
 			}
+			while(!pending.isEmpty()){
+				consumer.accept(join(pending.poll()));
+				progress.accept(++delivered);
+			}
+		} catch(RuntimeException e){
+			cancelAll(pending);
+			throw e;
+		}
+	}
+
+	private void traceEachShapeWithHoles(final IntMap bitmap, final Executor executor, final TraceContext context,
+			final Consumer<BezierShape> consumer){
+		final int maxInFlight = maxInFlight(executor);
+		final var regions = RegionMap.label(bitmap);
+		final var holes = HoleIndex.find(regions);
+		// the outline of a region alone in a hole is fitted when the hole is
+		// reached, and kept until the region itself is reached
+		final var fittedEarly = new HashMap<Integer, CompletableFuture<BezierShape>>();
+		var pending = new ArrayDeque<CompletableFuture<BezierShape>>(maxInFlight);
+		// every fitting task that may not have finished yet, including those
+		// fitted early, so that a shape with many holes does not queue them all
+		final var fitting = new ArrayDeque<CompletableFuture<?>>(maxInFlight);
+		int delivered = 0;
+		try {
+			for(int r = 0; r < regions.getRegionCount(); r++){
+				context.checkpoint();
+				var outline = fittedEarly.remove(r);
+				if(outline == null) outline = fitRegion(bitmap, regions, r, executor, context, fitting, maxInFlight);
+				final var parts = new ArrayList<CompletableFuture<BezierShape>>();
+				parts.add(outline);
+				for(int h = holes.getFirstHole(r); h >= 0; h = holes.getNextHole(h)){
+					final int enclosed = holes.getEnclosedRegion(h);
+					if(enclosed >= 0){
+						parts.add(fittedEarly.computeIfAbsent(enclosed, e -> fitRegion(bitmap, regions, e, executor, context, fitting, maxInFlight))
+								.thenApply(BezierShape::reversed));
+					} else {
+						parts.add(submitFit(holes.getChainCode(h), regions.getValue(r), executor, context, fitting, maxInFlight));
+					}
+				}
+				pending.add(CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+					final var shape = parts.get(0).join();
+					for(int i = 1; i < parts.size(); i++){
+						shape.addHole(parts.get(i).join());
+					}
+					return shape;
+				}));
+				while(pending.size() >= maxInFlight || (!pending.isEmpty() && pending.peek().isDone())){
+					consumer.accept(join(pending.poll()));
+					reportProgress(context, regions, ++delivered);
+				}
+			}
+			while(!pending.isEmpty()){
+				consumer.accept(join(pending.poll()));
+				reportProgress(context, regions, ++delivered);
+			}
+		} catch(RuntimeException e){
+			cancelAll(pending);
+			cancelAll(fittedEarly.values());
+			cancelAll(fitting);
+			throw e;
+		}
+	}
+	
+	private CompletableFuture<BezierShape> fitRegion(final IntMap bitmap, final RegionMap regions, final int r,
+			final Executor executor, final TraceContext context,
+			final ArrayDeque<CompletableFuture<?>> fitting, final int maxInFlight){
+		final var contour = followEdgeChain(bitmap, regions.getSeedX(r), regions.getSeedY(r));
+		return submitFit(contour, regions.getValue(r), executor, context, fitting, maxInFlight);
+	}
+	
+	/** submits a fitting task, first waiting for the oldest ones until fewer than <code>maxInFlight</code> are unfinished */
+	private CompletableFuture<BezierShape> submitFit(final ChainCode contour, final int color, final Executor executor,
+			final TraceContext context, final ArrayDeque<CompletableFuture<?>> fitting, final int maxInFlight){
+		return submitBounded(() -> context.call(() -> fitShape(contour, color)), executor, fitting, maxInFlight);
+	}
+	
+	/**
+	 * Submits a task to an executor, first waiting for the oldest tasks in
+	 * <code>inFlight</code> until fewer than <code>maxInFlight</code> of them
+	 * are unfinished, and adds it to <code>inFlight</code>
+	 * @param task the task
+	 * @param executor the executor which runs the task
+	 * @param inFlight the tasks which may not have finished yet, oldest first
+	 * @param maxInFlight see <code>maxInFlight(Executor)</code>
+	 * @return the submitted task
+	 */
+	static <T> CompletableFuture<T> submitBounded(final Supplier<T> task, final Executor executor,
+			final ArrayDeque<CompletableFuture<?>> inFlight, final int maxInFlight){
+		while(!inFlight.isEmpty() && (inFlight.size() >= maxInFlight || inFlight.peek().isDone())){
+			join(inFlight.poll());
+		}
+		final var future = CompletableFuture.supplyAsync(task, executor);
+		inFlight.add(future);
+		return future;
+	}
+	
+	/**
+	 * Gets the number of fitting tasks which may be submitted to an executor
+	 * but not yet delivered: a few per worker thread of the executor, so that
+	 * the workers are kept busy without queuing up outlines. The number of
+	 * threads is taken from <code>ForkJoinPool</code> and
+	 * <code>ThreadPoolExecutor</code>; for other executors it is assumed to be
+	 * the number of processors.
+	 * @param executor the executor which runs the fitting tasks
+	 * @return the maximum number of tasks in flight
+	 */
+	static int maxInFlight(final Executor executor){
+		final int processors = Runtime.getRuntime().availableProcessors();
+		final int threads;
+		if(executor instanceof ForkJoinPool){
+			threads = ((ForkJoinPool) executor).getParallelism();
+		} else if(executor instanceof ThreadPoolExecutor){
+			threads = Math.min(((ThreadPoolExecutor) executor).getMaximumPoolSize(), processors);
+		} else {
+			threads = processors;
+		}
+		return 4 * Math.max(1, threads);
+	}
+	
+	/**
+	 * Reports the progress of a trace after some of its shapes have been
+	 * delivered, counting every pixel before the seed of the next shape as
+	 * scanned
+	 * @param context the context of the trace
+	 * @param regions the labeling of the traced raster
+	 * @param delivered number of shapes delivered so far (in region order)
+	 */
+	static void reportProgress(final TraceContext context, final RegionMap regions, final int delivered){
+		final long total = (long) regions.getWidth() * regions.getHeight();
+		final long scanned = delivered < regions.getRegionCount()
+				? (long) regions.getSeedY(delivered) * regions.getWidth() + regions.getSeedX(delivered)
+				: total;
+		context.progress(scanned, total, delivered, regions.getRegionCount());
+	}
+	
+	/**
+	 * Reports the progress of a trace after some of its shapes have been
+	 * delivered, like <code>reportProgress(TraceContext, RegionMap, int)</code>
+	 * @param context the context of the trace
+	 * @param bitmap the traced raster
+	 * @param contours the outlines of the traced raster
+	 * @param delivered number of shapes delivered so far (in scan order)
+	 */
+	static void reportProgress(final TraceContext context, final IntMap bitmap, final ContourExtractor contours,
+			final int delivered){
+		final long total = (long) bitmap.getWidth() * bitmap.getHeight();
+		final long scanned = delivered < contours.getContourCount()
+				? (long) contours.getSeedY(delivered) * bitmap.getWidth() + contours.getSeedX(delivered)
+				: total;
+		context.progress(scanned, total, delivered, contours.getContourCount());
+	}
+	
+	/** stops the tasks of an abandoned trace that have not started yet */
+	static void cancelAll(final Iterable<? extends CompletableFuture<?>> tasks){
+		for(var task : tasks){
+			task.cancel(false);
+		}
+	}
+
+	/**
+	 * Describes every setting of this tracer that affects its output, such that
+	 * two tracers with the same description trace any raster to the same
+	 * shapes. This is used by <code>CachingTracer</code> to tell tracer
+	 * configurations apart. Subclasses which have settings of their own must
+	 * override this method and append them to <code>super.getSettingsKey()</code>.
+	 * @return A string identifying the tracer class and its settings
+	 */
+	public String getSettingsKey(){
+		return getClass().getName() + ";holes=" + traceHoles + ";minimumArea=" + minimumArea
+				+ ";straightRunLength=" + straightRunLength;
+	}
+
+	/**
+	 * Applies the minimum area setting (<code>getMinimumArea()</code>, which
+	 * wrappers forward to the wrapped tracer) to a raster
+	 * @param bitmap the raster to trace
+	 * @return <code>bitmap</code> itself, or a view of it with the small patches
+	 * merged into their neighbors
+	 */
+	IntMap despeckled(final IntMap bitmap){
+		final int minimumArea = getMinimumArea();
+		if(minimumArea <= 1) return bitmap;
+		final IntMap merged = RegionMap.label(bitmap).despeckle(minimumArea);
+		return merged == null ? bitmap : merged;
+	}
+
+	/**
+	 * Gets the tracer whose <code>traceRegion(...)</code> fits each shape the
+	 * same way as <code>traceAllShapes(IntMap)</code> of this tracer, for
+	 * <code>TraceSession</code>. That is this tracer itself, unless it is a
+	 * wrapper which returns the shapes of the tracer it wraps.
+	 * @return the tracer, or <code>null</code> if the shapes of this tracer are
+	 * not fitted one outline at a time
+	 */
+	Tracer outlineFitter(){
+		return this;
+	}
+
+	/**
+	 * Traces and fits the outline of a single region
+	 * @param bitmap the raster
+	 * @param regions the labeling of <code>bitmap</code>
+	 * @param r the region to trace
+	 * @return the fitted shape
+	 */
+	BezierShape traceRegion(final IntMap bitmap, final RegionMap regions, final int r){
+		var contour = followEdgeChain(bitmap, regions.getSeedX(r), regions.getSeedY(r));
+		return fitShape(contour, regions.getValue(r));
+	}
+
+	/**
+	 * Traces and fits the outline of the patch of color whose first pixel (in
+	 * scan order) is (x, y)
+	 * @param bitmap the raster
+	 * @param x X coordinate of the first pixel of the patch
+	 * @param y Y coordinate of the first pixel of the patch
+	 * @return the fitted shape
+	 */
+	BezierShape traceRegion(final IntMap bitmap, final int x, final int y){
+		return fitShape(followEdgeChain(bitmap, x, y), bitmap.get(x, y));
+	}
+
+	private BezierShape fitShape(final ChainCode contour, final int color){
+		var vectorized = traceContour(contour);
+		vectorized.setColor(color);
+		vectorized.setClosed(true);
+		return vectorized;
+	}
+
+	static <T> T join(final CompletableFuture<T> task){
+		try {
+			return task.join();
+		} catch(CompletionException e){
+			// re-throw the original exception from the worker thread
+			if(e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+			if(e.getCause() instanceof Error) throw (Error) e.getCause();
+			throw e;
 		}
-		return output;
 	}
 
 }
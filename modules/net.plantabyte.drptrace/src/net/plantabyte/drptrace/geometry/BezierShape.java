@@ -30,14 +30,34 @@ import java.util.List;
  * A <code>BezierShape</code> represents a sequence of bezier curves either
  * outlining a solid shape or flowing a single open-ended path. If produced by
  * tracing a raster, the color will be set to match the traced shape.
- *
+ * <p>
+ * A closed shape may also have holes, which are additional closed sub-paths
+ * cut out of the shape according to its fill rule. Holes traced from a raster
+ * wind in the opposite direction to the outline, so both fill rules give the
+ * same result for them.
+ * </p>
  * This class is not thread safe.
  */
 public class BezierShape extends ArrayList<BezierCurve> {
+	/**
+	 * The rule which decides whether a point is inside of a shape with holes
+	 * (same as the SVG <code>fill-rule</code> property)
+	 */
+	public enum FillRule {
+		/** a point is inside if the outline and holes wind around it a non-zero number of times (the SVG default) */
+		NON_ZERO,
+		/** a point is inside if it is enclosed by an odd number of sub-paths */
+		EVEN_ODD
+	}
+	
 	/** color, whcih might be ARGB or an index */
 	private int color = 0;
 	/** is closed or open loop? */
 	private boolean closedLoop = false;
+	/** inner contours, each a closed sub-path */
+	private final List<BezierShape> holes = new ArrayList<>(0);
+	/** how to fill the holes */
+	private FillRule fillRule = FillRule.NON_ZERO;
 	
 	/**
 	 * Default constructor for an empty <code>BezierShape</code>. The color will
@@ -111,6 +131,70 @@ public class BezierShape extends ArrayList<BezierCurve> {
 	 */
 	public void setClosed(boolean closed){this.closedLoop = closed;}
 	
+	/**
+	 * Gets the holes of this shape. The returned list may be modified to add or
+	 * remove holes.
+	 * @return list of inner contours (empty if this shape has no holes)
+	 */
+	public List<BezierShape> getHoles(){return holes;}
+	
+	/**
+	 * Adds a hole to this shape
+	 * @param hole a closed sub-path inside this shape
+	 */
+	public void addHole(BezierShape hole){holes.add(hole);}
+	
+	/**
+	 * Returns the rule used to decide which areas enclosed by the holes are
+	 * filled. Default is <code>FillRule.NON_ZERO</code>.
+	 * @return the fill rule
+	 */
+	public FillRule getFillRule(){return fillRule;}
+	
+	/**
+	 * Sets the rule used to decide which areas enclosed by the holes are
+	 * filled.
+	 * @param fillRule the fill rule
+	 */
+	public void setFillRule(FillRule fillRule){this.fillRule = fillRule;}
+	
+	/**
+	 * Creates a deep copy of this shape, including its holes
+	 * @return a new <code>BezierShape</code> with copies of the curves of this
+	 * one
+	 */
+	@Override
+	public BezierShape clone(){
+		var copy = new BezierShape(this.size());
+		for(var b : this){
+			copy.add(b.clone());
+		}
+		copy.setColor(color);
+		copy.setClosed(closedLoop);
+		copy.setFillRule(fillRule);
+		for(var hole : holes){
+			copy.addHole(hole.clone());
+		}
+		return copy;
+	}
+	
+	/**
+	 * Creates a copy of this shape which runs in the opposite direction (the
+	 * holes are not copied).
+	 * @return a new <code>BezierShape</code> with the same color and the curves
+	 * in reverse order, each from P4 to P1
+	 */
+	public BezierShape reversed(){
+		var copy = new BezierShape(this.size());
+		for(int i = this.size() - 1; i >= 0; i--){
+			final var b = this.get(i);
+			copy.add(new BezierCurve(b.getP4(), b.getP3(), b.getP2(), b.getP1()));
+		}
+		copy.setColor(color);
+		copy.setClosed(closedLoop);
+		return copy;
+	}
+	
 	/**
 	 * Returns a string representation of the Bezier path
 	 * @return Series of control points with SVG annotations
@@ -121,7 +205,8 @@ public class BezierShape extends ArrayList<BezierCurve> {
 	
 	/**
 	 * Constructs the SVG 1.1 path descriptor string to represent how to draw this
-	 * shape in an SVG DOM. Absolute coordinates are used.
+	 * shape in an SVG DOM. Absolute coordinates are used. Each hole is appended
+	 * as another <code>M ... Z</code> sub-path.
 	 * @return the <code>d="..."</code> string for a <code>&lt;path/&gt;</code>
 	 * element
 	 */
@@ -146,6 +231,9 @@ public class BezierShape extends ArrayList<BezierCurve> {
 			start = p.getP4();
 		}
 		if(this.isClosed()) sb.append(" Z");
+		for(var hole : holes){
+			sb.append(" ").append(hole.toSVGPathString());
+		}
 		return sb.toString();
 	}
 
@@ -158,5 +246,8 @@ public class BezierShape extends ArrayList<BezierCurve> {
 		for(int i = 0; i < this.size(); i++){
 			this.set(i, this.get(i).scaleAroundPoint(scalar, origin));
 		}
+		for(var hole : holes){
+			hole.scale(scalar, origin);
+		}
 	}
 }
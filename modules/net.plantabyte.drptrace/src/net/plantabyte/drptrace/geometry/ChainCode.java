@@ -0,0 +1,391 @@
+/*
+MIT License
+
+Copyright (c) 2021 Dr. Christopher C. Hall, aka DrPlantabyte
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package net.plantabyte.drptrace.geometry;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A <code>ChainCode</code> is a compact, immutable representation of a path
+ * along the pixel grid (such as the outline of a patch of pixels): a starting
+ * grid intersection (vertex) followed by a sequence of unit steps, each stored
+ * in 2 bits (a Freeman chain code with 4 directions), 32 steps per
+ * <code>long</code>. Compared to an array of <code>Vec2</code> points, this is
+ * more than 100 times smaller, so contours can be kept or sent elsewhere
+ * before they are fitted with bezier curves.
+ * <p>
+ * Vertex (X,Y) is the corner at the lower-left of pixel (X,Y). The points of a
+ * chain code are the midpoints of the pixel edges crossed by its steps, which
+ * are the points that <code>Tracer</code>s fit curves to (see
+ * <code>toPoints()</code> and <code>asPoints()</code>).
+ * </p>
+ */
+public final class ChainCode {
+	/** Step direction: +Y */
+	public static final int UP = 0;
+	/** Step direction: -X */
+	public static final int LEFT = 1;
+	/** Step direction: -Y */
+	public static final int DOWN = 2;
+	/** Step direction: +X */
+	public static final int RIGHT = 3;
+	/** change in X for each step direction */
+	private static final int[] DX = {0, -1, 0, 1};
+	/** change in Y for each step direction */
+	private static final int[] DY = {1, 0, -1, 0};
+	
+	private final int startX;
+	private final int startY;
+	private final int length;
+	private final long[] packed;
+	
+	/**
+	 * Creates a chain code from a sequence of step directions
+	 * @param startX X coordinate of the starting vertex
+	 * @param startY Y coordinate of the starting vertex
+	 * @param steps direction of each step (<code>UP</code>, <code>LEFT</code>,
+	 *              <code>DOWN</code> or <code>RIGHT</code>)
+	 * @throws IllegalArgumentException Thrown if a step is not one of the four
+	 * directions
+	 */
+	public ChainCode(int startX, int startY, byte[] steps) throws IllegalArgumentException {
+		this.startX = startX;
+		this.startY = startY;
+		this.length = steps.length;
+		this.packed = new long[words(steps.length)];
+		for(int i = 0; i < steps.length; i++){
+			if((steps[i] & ~3) != 0) throw new IllegalArgumentException(String.format("Invalid step direction: %s", steps[i]));
+			packed[i >>> 5] |= (long) steps[i] << ((i & 31) << 1);
+		}
+	}
+	
+	/**
+	 * Creates a chain code from packed steps, as returned by
+	 * <code>getPackedSteps()</code>
+	 * @param startX X coordinate of the starting vertex
+	 * @param startY Y coordinate of the starting vertex
+	 * @param length number of steps
+	 * @param packedSteps 2 bits per step, starting with the lowest bits of the
+	 *                    first element
+	 * @throws IllegalArgumentException Thrown if <code>packedSteps</code> is too
+	 * short for the given length
+	 */
+	public ChainCode(int startX, int startY, int length, long[] packedSteps) throws IllegalArgumentException {
+		if(length < 0 || packedSteps.length < words(length)){
+			throw new IllegalArgumentException(String.format("%s packed words cannot hold %s steps", packedSteps.length, length));
+		}
+		this.startX = startX;
+		this.startY = startY;
+		this.length = length;
+		this.packed = Arrays.copyOf(packedSteps, words(length));
+		// clear any bits beyond the last step, so that equals() works
+		if((length & 31) != 0) packed[packed.length - 1] &= (1L << ((length & 31) << 1)) - 1;
+	}
+	
+	private ChainCode(long[] packed, int length, int startX, int startY){
+		this.startX = startX;
+		this.startY = startY;
+		this.length = length;
+		this.packed = packed;
+	}
+	
+	/**
+	 * Creates a chain code that takes ownership of the packed steps without
+	 * copying or checking them, for arrays which are never modified afterwards
+	 */
+	private static ChainCode sharing(int startX, int startY, int length, long[] packed){
+		return new ChainCode(packed, length, startX, startY);
+	}
+	
+	private static int words(int length){
+		return (length + 31) >>> 5;
+	}
+	
+	/**
+	 * Gets the change in X coordinate of a step
+	 * @param dir step direction (<code>UP</code>, <code>LEFT</code>,
+	 *            <code>DOWN</code> or <code>RIGHT</code>)
+	 * @return -1, 0, or 1
+	 */
+	public static int dx(int dir){
+		return DX[dir];
+	}
+	
+	/**
+	 * Gets the change in Y coordinate of a step
+	 * @param dir step direction (<code>UP</code>, <code>LEFT</code>,
+	 *            <code>DOWN</code> or <code>RIGHT</code>)
+	 * @return -1, 0, or 1
+	 */
+	public static int dy(int dir){
+		return DY[dir];
+	}
+	
+	/**
+	 * Gets the X coordinate of the starting vertex
+	 * @return X coordinate
+	 */
+	public int getStartX(){return startX;}
+	
+	/**
+	 * Gets the Y coordinate of the starting vertex
+	 * @return Y coordinate
+	 */
+	public int getStartY(){return startY;}
+	
+	/**
+	 * Gets the number of steps
+	 * @return number of steps (and of points)
+	 */
+	public int length(){return length;}
+	
+	/**
+	 * Gets the direction of a step
+	 * @param index index of the step
+	 * @return <code>UP</code>, <code>LEFT</code>, <code>DOWN</code> or
+	 * <code>RIGHT</code>
+	 * @throws IndexOutOfBoundsException Thrown if the index is negative or not
+	 * less than <code>length()</code>
+	 */
+	public int getStep(int index) throws IndexOutOfBoundsException {
+		if(index < 0 || index >= length) throw new IndexOutOfBoundsException(String.format("Step %s of %s", index, length));
+		return (int)(packed[index >>> 5] >>> ((index & 31) << 1)) & 3;
+	}
+	
+	/**
+	 * Gets the length of the straight run starting at a step, which is the
+	 * number of consecutive steps (up to the last step) in the same direction
+	 * @param index index of the first step of the run
+	 * @return the number of steps in the run, at least 1
+	 * @throws IndexOutOfBoundsException Thrown if the index is negative or not
+	 * less than <code>length()</code>
+	 */
+	public int getRunLength(int index) throws IndexOutOfBoundsException {
+		final int dir = getStep(index);
+		int end = index + 1;
+		// compare a whole word at a time against the direction repeated 32 times
+		final long same = dir * 0x5555555555555555L;
+		while(end < length){
+			final int shift = (end & 31) << 1;
+			final long diff = (packed[end >>> 5] ^ same) >>> shift;
+			if(diff != 0){
+				end += Long.numberOfTrailingZeros(diff) >>> 1;
+				break;
+			}
+			end += 32 - (end & 31);
+		}
+		return Math.min(end, length) - index;
+	}
+	
+	/**
+	 * Gets a copy of the packed steps (2 bits per step, starting with the lowest
+	 * bits of the first element), eg for storing or sending this chain code
+	 * @return a new array of <code>(length()+31)/32</code> elements
+	 */
+	public long[] getPackedSteps(){
+		return packed.clone();
+	}
+	
+	/**
+	 * Gets the direction of every step
+	 * @return one direction per step
+	 */
+	public byte[] toSteps(){
+		final byte[] steps = new byte[length];
+		for(int i = 0; i < length; i++){
+			steps[i] = (byte)((packed[i >>> 5] >>> ((i & 31) << 1)) & 3);
+		}
+		return steps;
+	}
+	
+	/**
+	 * Checks whether the path returns to its starting vertex
+	 * @return <code>true</code> if the steps add up to no movement
+	 */
+	public boolean isClosed(){
+		int x = 0, y = 0;
+		for(int i = 0; i < length; i++){
+			final int d = getStep(i);
+			x += DX[d];
+			y += DY[d];
+		}
+		return x == 0 && y == 0;
+	}
+	
+	/**
+	 * Moves the path without changing its steps, eg from the coordinates of a
+	 * window into those of the whole raster
+	 * @param dx amount to add to the X coordinate of the starting vertex
+	 * @param dy amount to add to the Y coordinate of the starting vertex
+	 * @return a chain code with the same steps, starting at
+	 * (<code>getStartX()+dx</code>, <code>getStartY()+dy</code>)
+	 */
+	public ChainCode translate(int dx, int dy){
+		if(dx == 0 && dy == 0) return this;
+		return sharing(startX + dx, startY + dy, length, packed);
+	}
+	
+	/**
+	 * Gets the midpoints of the pixel edges crossed by each step
+	 * @return a new array with one point per step
+	 */
+	public Vec2[] toPoints(){
+		final var points = new Vec2[length];
+		int x = startX, y = startY;
+		for(int i = 0; i < length; i++){
+			final int d = (int)(packed[i >>> 5] >>> ((i & 31) << 1)) & 3;
+			points[i] = new Vec2(x + 0.5 * DX[d], y + 0.5 * DY[d]);
+			x += DX[d];
+			y += DY[d];
+		}
+		return points;
+	}
+	
+	/**
+	 * Gets a read-only view of the points of this chain code (the same points as
+	 * <code>toPoints()</code>), which are computed when accessed. Creating the
+	 * view costs one pass over the steps and two <code>int</code>s per 32 steps.
+	 * @return an unmodifiable <code>List</code> of <code>length()</code> points
+	 */
+	public List<Vec2> asPoints(){
+		return new PointView();
+	}
+	
+	/**
+	 * Creates a string representation of the start and the steps (as the
+	 * letters U, L, D and R)
+	 * @return eg "(3, 0) RRULLD"
+	 */
+	@Override public String toString(){
+		final var sb = new StringBuilder(String.format("(%d, %d) ", startX, startY));
+		for(int i = 0; i < length; i++){
+			sb.append("ULDR".charAt(getStep(i)));
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * Checks equality with another object
+	 * @param other another object
+	 * @return <code>true</code> if <code>other</code> is a <code>ChainCode</code>
+	 * with the same start and steps
+	 */
+	@Override public boolean equals(Object other){
+		if(this == other) return true;
+		if(!(other instanceof ChainCode)) return false;
+		final var c = (ChainCode) other;
+		return startX == c.startX && startY == c.startY && length == c.length && Arrays.equals(packed, c.packed);
+	}
+	
+	/**
+	 * Hash code
+	 * @return hash code
+	 */
+	@Override public int hashCode(){
+		return 2003 * (1999 * startX + startY) + 31 * length + Arrays.hashCode(packed);
+	}
+	
+	/** random access to the points, from the vertex at the start of each word */
+	private final class PointView extends AbstractList<Vec2> implements RandomAccess {
+		private final int[] wordX = new int[packed.length];
+		private final int[] wordY = new int[packed.length];
+		PointView(){
+			int x = startX, y = startY;
+			for(int i = 0; i < length; i++){
+				if((i & 31) == 0){
+					wordX[i >>> 5] = x;
+					wordY[i >>> 5] = y;
+				}
+				final int d = (int)(packed[i >>> 5] >>> ((i & 31) << 1)) & 3;
+				x += DX[d];
+				y += DY[d];
+			}
+		}
+		@Override public Vec2 get(final int index){
+			if(index < 0 || index >= length) throw new IndexOutOfBoundsException(String.format("Point %s of %s", index, length));
+			final long word = packed[index >>> 5];
+			int x = wordX[index >>> 5], y = wordY[index >>> 5];
+			for(int k = 0; k < (index & 31); k++){
+				final int d = (int)(word >>> (k << 1)) & 3;
+				x += DX[d];
+				y += DY[d];
+			}
+			final int d = (int)(word >>> ((index & 31) << 1)) & 3;
+			return new Vec2(x + 0.5 * DX[d], y + 0.5 * DY[d]);
+		}
+		@Override public int size(){
+			return length;
+		}
+	}
+	
+	/**
+	 * A <code>Builder</code> appends steps to a chain code one at a time, without
+	 * creating any objects per step.
+	 */
+	public static final class Builder {
+		private final int startX, startY;
+		private long[] packed = new long[2];
+		private int length = 0;
+		
+		/**
+		 * Starts a new chain code
+		 * @param startX X coordinate of the starting vertex
+		 * @param startY Y coordinate of the starting vertex
+		 */
+		public Builder(int startX, int startY){
+			this.startX = startX;
+			this.startY = startY;
+		}
+		
+		/**
+		 * Appends a step
+		 * @param dir <code>UP</code>, <code>LEFT</code>, <code>DOWN</code> or
+		 *            <code>RIGHT</code> (only the lowest 2 bits are used)
+		 */
+		public void append(int dir){
+			final int w = length >>> 5;
+			if(w == packed.length) packed = Arrays.copyOf(packed, w * 2);
+			packed[w] |= (long)(dir & 3) << ((length & 31) << 1);
+			length++;
+		}
+		
+		/**
+		 * Gets the number of steps appended so far
+		 * @return number of steps
+		 */
+		public int length(){
+			return length;
+		}
+		
+		/**
+		 * Creates the chain code
+		 * @return a new <code>ChainCode</code> of the appended steps
+		 */
+		public ChainCode build(){
+			return sharing(startX, startY, length, Arrays.copyOf(packed, words(length)));
+		}
+	}
+}
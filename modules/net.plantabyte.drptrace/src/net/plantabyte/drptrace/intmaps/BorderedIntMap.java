@@ -0,0 +1,268 @@
+/*
+MIT License
+
+Copyright (c) 2021 Dr. Christopher C. Hall, aka DrPlantabyte
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package net.plantabyte.drptrace.intmaps;
+
+import net.plantabyte.drptrace.ImmutableIntMap;
+import net.plantabyte.drptrace.IntMap;
+
+/**
+ * <code>IntMap</code> implementation which surrounds a copy of a raster with a
+ * one-pixel border holding a <i>sentinel</i> value, which is guaranteed to
+ * differ from every value inside the raster. Because of the border, reading
+ * by index with <code>getAt(index)</code> also works one pixel outside of the
+ * raster (returning the sentinel), so algorithms that compare a pixel's
+ * neighbors with the value of a patch (edge following, flood filling) do not
+ * need to check whether the neighbors are in range. The values are stored in
+ * row-major order with a row stride of <code>width + 2</code>, and the hot
+ * loops of the tracer address them directly with <code>indexOf(x, y)</code>,
+ * <code>getStride()</code> and <code>getAt(index)</code>.
+ * <p>
+ * <code>get(x, y)</code>, <code>set(x, y, value)</code> and
+ * <code>isInRange(x, y)</code> only accept coordinates inside the raster, like
+ * those of every other <code>IntMap</code>. If a value equal to the sentinel is set,
+ * a new sentinel is chosen (which takes a full scan of the raster).
+ * </p>
+ */
+public final class BorderedIntMap extends IntMap {
+	private final int width;
+	private final int height;
+	private final int stride;
+	private final int[] data;
+	private int sentinel;
+	
+	/**
+	 * Constructs a new instance with a copy of the values of the given
+	 * <code>IntMap</code>
+	 * @param source the raster to copy
+	 */
+	public BorderedIntMap(IntMap source){
+		this.width = source.getWidth();
+		this.height = source.getHeight();
+		this.stride = Math.addExact(width, 2);
+		this.data = new int[Math.multiplyExact(stride, Math.addExact(height, 2))];
+		if(width > 0 && height > 0){
+			source.getRegion(0, 0, width, height, data, stride + 1, stride);
+		}
+		chooseSentinel();
+	}
+	
+	private BorderedIntMap(BorderedIntMap other){
+		this.width = other.width;
+		this.height = other.height;
+		this.stride = other.stride;
+		this.data = other.data.clone();
+		this.sentinel = other.sentinel;
+	}
+	
+	/**
+	 * Picks a value which is not in the raster and writes it into the border.
+	 * The values are counted by their upper 16 bits: fewer than 2^32 pixels
+	 * cannot fill every one of the 2^16 buckets, so the least-used bucket has
+	 * at least one free lower half.
+	 */
+	private void chooseSentinel(){
+		final int[] counts = new int[0x10000];
+		for(int y = 0; y < height; y++){
+			final int row = (y + 1) * stride + 1;
+			for(int x = 0; x < width; x++){
+				counts[data[row + x] >>> 16]++;
+			}
+		}
+		// prefer the bucket of Integer.MIN_VALUE, which is rarely used by colors
+		int bucket = 0x8000;
+		for(int b = 0; b < counts.length && counts[bucket] != 0; b++){
+			if(counts[b] < counts[bucket]) bucket = b;
+		}
+		final boolean[] used = new boolean[0x10000];
+		if(counts[bucket] != 0){
+			for(int y = 0; y < height; y++){
+				final int row = (y + 1) * stride + 1;
+				for(int x = 0; x < width; x++){
+					final int v = data[row + x];
+					if(v >>> 16 == bucket) used[v & 0xFFFF] = true;
+				}
+			}
+		}
+		int low = 0;
+		while(used[low]) low++;
+		this.sentinel = (bucket << 16) | low;
+		// bottom and top rows, then the left and right columns
+		final int top = (height + 1) * stride;
+		for(int i = 0; i < stride; i++){
+			data[i] = sentinel;
+			data[top + i] = sentinel;
+		}
+		for(int y = 1; y <= height; y++){
+			data[y * stride] = sentinel;
+			data[y * stride + width + 1] = sentinel;
+		}
+	}
+	
+	/**
+	 * Gets the sentinel value stored in the border, which is not equal to any
+	 * value inside the raster
+	 * @return the sentinel value
+	 */
+	public int getSentinel(){
+		return sentinel;
+	}
+	
+	/**
+	 * Gets the index of pixel (X,Y) for <code>getAt(int)</code>. Coordinates in
+	 * the border (from -1 to <code>width</code> and from -1 to
+	 * <code>height</code>) are allowed. Neighbors of a pixel are at
+	 * <code>index &plusmn; 1</code> and <code>index &plusmn; getStride()</code>.
+	 * @param x X coordinate, from -1 to <code>getWidth()</code>
+	 * @param y Y coordinate, from -1 to <code>getHeight()</code>
+	 * @return the index of the pixel
+	 * @throws ArrayIndexOutOfBoundsException thrown if (X,Y) is outside of the
+	 * border
+	 */
+	public int indexOf(final int x, final int y) throws ArrayIndexOutOfBoundsException {
+		if(x < -1 || y < -1 || x > width || y > height){
+			throw new ArrayIndexOutOfBoundsException(String.format("(%s, %s) is outside of the bordered %sx%s raster", x, y, width, height));
+		}
+		return (y + 1) * stride + x + 1;
+	}
+	
+	/**
+	 * Gets the distance between the indices of consecutive rows
+	 * @return <code>getWidth() + 2</code>
+	 */
+	public int getStride(){
+		return stride;
+	}
+	
+	/**
+	 * Gets the value at an index returned by <code>indexOf(x, y)</code> (or a
+	 * neighbor of it). No range check is done other than the array's own.
+	 * @param index index of the pixel
+	 * @return the value of the pixel, or the sentinel if the pixel is in the
+	 * border
+	 */
+	public int getAt(final int index){
+		return data[index];
+	}
+	
+	/**
+	 * Get the value at the given (X,Y) coordinate (use
+	 * <code>getAt(indexOf(x, y))</code> to read the border)
+	 * @param x X coordinate
+	 * @param y Y coordinate
+	 * @return An integer value
+	 * @throws ArrayIndexOutOfBoundsException Thrown if coordinate (X,Y) is out
+	 * of bounds
+	 */
+	@Override
+	public int get(final int x, final int y)
+			throws ArrayIndexOutOfBoundsException {
+		if(!isInRange(x, y)){
+			throw new ArrayIndexOutOfBoundsException(String.format("(%s, %s) is out of bounds of %sx%s raster", x, y, width, height));
+		}
+		return data[(y + 1) * stride + x + 1];
+	}
+	
+	/**
+	 * Sets the value at a given coordinate to the specified value.
+	 * @param x X coordinate
+	 * @param y Y coordinate
+	 * @param value value to store at (X,Y)
+	 * @return Returns the previous value that was overwritten.
+	 * @throws ArrayIndexOutOfBoundsException Thrown if coordinate (X,Y) is out
+	 * of bounds (the border cannot be set)
+	 * @throws UnsupportedOperationException Thrown if this map has been frozen
+	 */
+	public int set(final int x, final int y, final int value)
+			throws ArrayIndexOutOfBoundsException {
+		checkNotFrozen();
+		if(!isInRange(x, y)){
+			throw new ArrayIndexOutOfBoundsException(String.format("(%s, %s) is out of bounds of %sx%s raster", x, y, width, height));
+		}
+		final int i = (y + 1) * stride + x + 1;
+		final int t = data[i];
+		data[i] = value;
+		if(value == sentinel) chooseSentinel();
+		return t;
+	}
+	
+	/**
+	 * Copies the values of a rectangular area into an array, in row order, such
+	 * that the value at (x+i, y+j) is stored at
+	 * <code>dst[offset + j*stride + i]</code>.
+	 * @param x X coordinate of the first column of the area
+	 * @param y Y coordinate of the first row of the area
+	 * @param width width of the area
+	 * @param height height of the area
+	 * @param dst destination array
+	 * @param offset index in <code>dst</code> of the value at (x,y)
+	 * @param stride distance in <code>dst</code> between consecutive rows
+	 * @throws ArrayIndexOutOfBoundsException thrown if the area is not inside
+	 * the bounds of this <code>IntMap</code>, or <code>dst</code> is too small
+	 */
+	@Override
+	public void getRegion(final int x, final int y, final int width, final int height,
+			final int[] dst, final int offset, final int stride) throws ArrayIndexOutOfBoundsException {
+		checkRegion(x, y, width, height);
+		for(int j = 0; j < height; j++){
+			System.arraycopy(data, (y + j + 1) * this.stride + x + 1, dst, offset + j * stride, width);
+		}
+	}
+	
+	/**
+	 * Gets the width of this <code>IntMap</code> (not counting the border)
+	 * @return The width of this <code>IntMap</code>
+	 */
+	@Override
+	public int getWidth() {
+		return this.width;
+	}
+	
+	/**
+	 * Gets the height of this <code>IntMap</code> (not counting the border)
+	 * @return The height of this <code>IntMap</code>
+	 */
+	@Override
+	public int getHeight() {
+		return this.height;
+	}
+	
+	/**
+	 * Makes this map read-only and returns an immutable, thread-safe view of it,
+	 * without copying (see <code>IntMap.freeze()</code>)
+	 * @return An immutable view of this map
+	 */
+	@Override
+	public ImmutableIntMap freeze(){
+		return freezeInPlace();
+	}
+	
+	/**
+	 * Creates a deep-copy clone
+	 * @return A new <code>IntMap</code> with identical data to this one.
+	 */
+	@Override
+	public BorderedIntMap clone() {
+		return new BorderedIntMap(this);
+	}
+}
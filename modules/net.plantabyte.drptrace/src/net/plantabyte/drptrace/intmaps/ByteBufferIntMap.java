@@ -0,0 +1,262 @@
+/*
+MIT License
+
+Copyright (c) 2021 Dr. Christopher C. Hall, aka DrPlantabyte
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package net.plantabyte.drptrace.intmaps;
+
+import net.plantabyte.drptrace.IntMap;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Read-only <code>IntMap</code> view of the pixels of an image in a
+ * <code>ByteBuffer</code> (eg a direct buffer filled by a native decoder or
+ * received from the network), without copying them. Each row starts
+ * <code>stride</code> bytes after the previous one, and the pixels are stored
+ * in one of the <code>PixelFormat</code>s. Color pixels are returned as
+ * <code>0xAARRGGBB</code> values, the same as
+ * <code>BufferedImage.getRGB(x, y)</code> returns for an RGB image, and mask
+ * pixels as 0 or 1.
+ * <p>
+ * The view keeps its own duplicate of the buffer, so changing the position,
+ * limit or byte order of the buffer afterwards does not affect it, and it can
+ * be read from several threads at once. The buffer must not change while this
+ * map is being traced. Since the buffer can be modified through other
+ * references, <code>freeze()</code> makes a copy.
+ * </p>
+ */
+public final class ByteBufferIntMap extends IntMap {
+	/**
+	 * The layout of the pixels in the buffer
+	 */
+	public enum PixelFormat {
+		/** 4 bytes per pixel: red, green, blue, alpha */
+		RGBA8,
+		/** 4 bytes per pixel: blue, green, red, alpha */
+		BGRA8,
+		/** 1 byte per pixel: gray level (returned as an opaque gray color) */
+		GRAY8,
+		/**
+		 * 1 bit per pixel, 8 pixels per byte with the leftmost pixel in the most
+		 * significant bit (returned as 0 or 1)
+		 */
+		MASK1;
+		
+		/**
+		 * Gets the smallest number of bytes a row of pixels needs
+		 * @param width number of pixels in the row
+		 * @return the number of bytes
+		 */
+		public int rowBytes(final int width){
+			switch(this){
+				case RGBA8:
+				case BGRA8:
+					return Math.multiplyExact(width, 4);
+				case GRAY8:
+					return width;
+				default:
+					return (width + 7) >>> 3;
+			}
+		}
+	}
+	
+	private final ByteBuffer buffer;
+	private final int width;
+	private final int height;
+	private final int offset;
+	private final int stride;
+	private final PixelFormat format;
+	
+	/**
+	 * Constructs a view of a buffer holding the rows of an image one after the
+	 * other, starting at index 0
+	 * @param buffer the buffer to read
+	 * @param width width of the image
+	 * @param height height of the image
+	 * @param format the layout of the pixels
+	 * @throws IllegalArgumentException Thrown if the buffer is too small
+	 */
+	public ByteBufferIntMap(ByteBuffer buffer, int width, int height, PixelFormat format)
+			throws IllegalArgumentException {
+		this(buffer, width, height, 0, format.rowBytes(width), format);
+	}
+	
+	/**
+	 * Constructs a view of a buffer holding the rows of an image
+	 * @param buffer the buffer to read
+	 * @param width width of the image
+	 * @param height height of the image
+	 * @param offset index in <code>buffer</code> of the first byte of the
+	 *               first row
+	 * @param stride number of bytes between the starts of consecutive rows (at
+	 *               least <code>format.rowBytes(width)</code>)
+	 * @param format the layout of the pixels
+	 * @throws IllegalArgumentException Thrown if any of the arguments are
+	 * negative, the stride is too small for a row, or the buffer is too small
+	 */
+	public ByteBufferIntMap(ByteBuffer buffer, int width, int height, int offset, int stride, PixelFormat format)
+			throws IllegalArgumentException {
+		if(width < 0 || height < 0 || offset < 0 || stride < format.rowBytes(width)){
+			throw new IllegalArgumentException(String.format("Invalid layout: %sx%s %s at offset %s with stride %s",
+					width, height, format, offset, stride));
+		}
+		final long end = width == 0 || height == 0 ? 0 : offset + (long) (height - 1) * stride + format.rowBytes(width);
+		if(end > buffer.limit()){
+			throw new IllegalArgumentException(String.format("%sx%s %s image at offset %s with stride %s needs %s bytes, but the buffer limit is %s",
+					width, height, format, offset, stride, end, buffer.limit()));
+		}
+		// little-endian, so that a BGRA8 pixel reads as 0xAARRGGBB
+		this.buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		this.width = width;
+		this.height = height;
+		this.offset = offset;
+		this.stride = stride;
+		this.format = format;
+	}
+	
+	/**
+	 * Gets the layout of the pixels in the buffer
+	 * @return the pixel format
+	 */
+	public PixelFormat getPixelFormat(){
+		return format;
+	}
+	
+	/**
+	 * Get the value at the given (X,Y) coordinate.
+	 * @param x X coordinate
+	 * @param y Y coordinate
+	 * @return The <code>0xAARRGGBB</code> color of the pixel, or 0 or 1 for a
+	 * <code>MASK1</code> image
+	 * @throws ArrayIndexOutOfBoundsException thrown if (X,Y) is outside the
+	 * bounds of this <code>IntMap</code>
+	 */
+	@Override
+	public int get(final int x, final int y)
+			throws ArrayIndexOutOfBoundsException {
+		if(!isInRange(x, y)){
+			throw new ArrayIndexOutOfBoundsException(String.format("(%s, %s) is out of bounds of %sx%s image", x, y, width, height));
+		}
+		final int row = offset + y * stride;
+		switch(format){
+			case RGBA8:
+				return swapRedBlue(buffer.getInt(row + 4 * x));
+			case BGRA8:
+				return buffer.getInt(row + 4 * x);
+			case GRAY8:
+				return gray(buffer.get(row + x));
+			default:
+				return (buffer.get(row + (x >>> 3)) >>> (7 - (x & 7))) & 1;
+		}
+	}
+	
+	private static int swapRedBlue(final int abgr){
+		return (abgr & 0xFF00FF00) | ((abgr >>> 16) & 0xFF) | ((abgr & 0xFF) << 16);
+	}
+	
+	private static int gray(final byte level){
+		return 0xFF000000 | ((level & 0xFF) * 0x010101);
+	}
+	
+	/**
+	 * Copies the values of a rectangular area into an array, in row order, such
+	 * that the value at (x+i, y+j) is stored at
+	 * <code>dst[offset + j*stride + i]</code>.
+	 * @param x X coordinate of the first column of the area
+	 * @param y Y coordinate of the first row of the area
+	 * @param width width of the area
+	 * @param height height of the area
+	 * @param dst destination array
+	 * @param offset index in <code>dst</code> of the value at (x,y)
+	 * @param stride distance in <code>dst</code> between consecutive rows
+	 * @throws ArrayIndexOutOfBoundsException thrown if the area is not inside
+	 * the bounds of this <code>IntMap</code>, or <code>dst</code> is too small
+	 */
+	@Override
+	public void getRegion(final int x, final int y, final int width, final int height,
+			final int[] dst, final int offset, final int stride) throws ArrayIndexOutOfBoundsException {
+		checkRegion(x, y, width, height);
+		for(int j = 0; j < height; j++){
+			final int src = this.offset + (y + j) * this.stride, row = offset + j * stride;
+			switch(format){
+				case RGBA8:
+					for(int i = 0; i < width; i++){
+						dst[row + i] = swapRedBlue(buffer.getInt(src + 4 * (x + i)));
+					}
+					break;
+				case BGRA8:
+					for(int i = 0; i < width; i++){
+						dst[row + i] = buffer.getInt(src + 4 * (x + i));
+					}
+					break;
+				case GRAY8:
+					for(int i = 0; i < width; i++){
+						dst[row + i] = gray(buffer.get(src + x + i));
+					}
+					break;
+				default:
+					// one byte of the mask at a time
+					int bits = 0;
+					for(int i = 0; i < width; i++){
+						final int px = x + i;
+						if(i == 0 || (px & 7) == 0) bits = buffer.get(src + (px >>> 3));
+						dst[row + i] = (bits >>> (7 - (px & 7))) & 1;
+					}
+					break;
+			}
+		}
+	}
+	
+	/**
+	 * Gets the width of this <code>IntMap</code>
+	 * @return The width of this <code>IntMap</code>
+	 */
+	@Override
+	public int getWidth() {
+		return this.width;
+	}
+	
+	/**
+	 * Gets the height of this <code>IntMap</code>
+	 * @return The height of this <code>IntMap</code>
+	 */
+	@Override
+	public int getHeight() {
+		return this.height;
+	}
+	
+	/**
+	 * Copies the values into a new <code>LinearIntMap</code>
+	 * @return A new <code>IntMap</code> with identical data to this one.
+	 */
+	@Override
+	public LinearIntMap clone() {
+		var copy = new LinearIntMap(width, height);
+		final int[] row = new int[width];
+		for(int y = 0; y < height; y++){
+			getRegion(0, y, width, 1, row, 0, width);
+			copy.setRow(y, row, 0);
+		}
+		return copy;
+	}
+}
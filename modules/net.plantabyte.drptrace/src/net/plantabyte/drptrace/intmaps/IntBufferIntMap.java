@@ -0,0 +1,169 @@
+/*
+MIT License
+
+Copyright (c) 2021 Dr. Christopher C. Hall, aka DrPlantabyte
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package net.plantabyte.drptrace.intmaps;
+
+import net.plantabyte.drptrace.IntMap;
+
+import java.nio.IntBuffer;
+
+/**
+ * Read-only <code>IntMap</code> view of the values in an <code>IntBuffer</code>
+ * (eg the output of a native decoder in a direct buffer), without copying
+ * them. The value at (X,Y) is <code>buffer.get(offset + y * stride + x)</code>.
+ * The view keeps its own duplicate of the buffer, so changing the position or
+ * limit of the buffer afterwards does not affect it, and it can be read from
+ * several threads at once.
+ * <p>
+ * The buffer must not change while this map is being traced. Since the
+ * buffer can be modified through other references, <code>freeze()</code>
+ * makes a copy.
+ * </p>
+ */
+public final class IntBufferIntMap extends IntMap {
+	private final IntBuffer buffer;
+	private final int width;
+	private final int height;
+	private final int offset;
+	private final int stride;
+	
+	/**
+	 * Constructs a view of a buffer holding <code>width * height</code> values
+	 * in row-major order, starting at index 0
+	 * @param buffer the buffer to read
+	 * @param width width of the raster
+	 * @param height height of the raster
+	 * @throws IllegalArgumentException Thrown if the buffer is too small
+	 */
+	public IntBufferIntMap(IntBuffer buffer, int width, int height) throws IllegalArgumentException {
+		this(buffer, width, height, 0, width);
+	}
+	
+	/**
+	 * Constructs a view of a buffer holding the rows of a raster
+	 * @param buffer the buffer to read
+	 * @param width width of the raster
+	 * @param height height of the raster
+	 * @param offset index in <code>buffer</code> of the value at (0,0)
+	 * @param stride distance in <code>buffer</code> between consecutive rows
+	 *               (at least <code>width</code>)
+	 * @throws IllegalArgumentException Thrown if any of the arguments are
+	 * negative, the stride is less than the width, or the buffer is too small
+	 */
+	public IntBufferIntMap(IntBuffer buffer, int width, int height, int offset, int stride)
+			throws IllegalArgumentException {
+		if(width < 0 || height < 0 || offset < 0 || stride < width){
+			throw new IllegalArgumentException(String.format("Invalid layout: %sx%s at offset %s with stride %s", width, height, offset, stride));
+		}
+		final long end = width == 0 || height == 0 ? 0 : offset + (long) (height - 1) * stride + width;
+		if(end > buffer.limit()){
+			throw new IllegalArgumentException(String.format("%sx%s raster at offset %s with stride %s needs %s values, but the buffer limit is %s",
+					width, height, offset, stride, end, buffer.limit()));
+		}
+		this.buffer = buffer.duplicate();
+		this.width = width;
+		this.height = height;
+		this.offset = offset;
+		this.stride = stride;
+	}
+	
+	/**
+	 * Get the value at the given (X,Y) coordinate.
+	 * @param x X coordinate
+	 * @param y Y coordinate
+	 * @return An integer value
+	 * @throws ArrayIndexOutOfBoundsException thrown if (X,Y) is outside the
+	 * bounds of this <code>IntMap</code>
+	 */
+	@Override
+	public int get(final int x, final int y)
+			throws ArrayIndexOutOfBoundsException {
+		if(!isInRange(x, y)){
+			throw new ArrayIndexOutOfBoundsException(String.format("(%s, %s) is out of bounds of %sx%s raster", x, y, width, height));
+		}
+		return buffer.get(offset + y * stride + x);
+	}
+	
+	/**
+	 * Copies the values of a rectangular area into an array, in row order, such
+	 * that the value at (x+i, y+j) is stored at
+	 * <code>dst[offset + j*stride + i]</code>.
+	 * @param x X coordinate of the first column of the area
+	 * @param y Y coordinate of the first row of the area
+	 * @param width width of the area
+	 * @param height height of the area
+	 * @param dst destination array
+	 * @param offset index in <code>dst</code> of the value at (x,y)
+	 * @param stride distance in <code>dst</code> between consecutive rows
+	 * @throws ArrayIndexOutOfBoundsException thrown if the area is not inside
+	 * the bounds of this <code>IntMap</code>, or <code>dst</code> is too small
+	 */
+	@Override
+	public void getRegion(final int x, final int y, final int width, final int height,
+			final int[] dst, final int offset, final int stride) throws ArrayIndexOutOfBoundsException {
+		checkRegion(x, y, width, height);
+		// bulk reads move the position, so use a private duplicate
+		final IntBuffer view = buffer.duplicate();
+		try {
+			for(int j = 0; j < height; j++){
+				view.position(this.offset + (y + j) * this.stride + x);
+				view.get(dst, offset + j * stride, width);
+			}
+		} catch(IndexOutOfBoundsException e){
+			throw new ArrayIndexOutOfBoundsException(String.format("Array of length %s is too small", dst.length));
+		}
+	}
+	
+	/**
+	 * Gets the width of this <code>IntMap</code>
+	 * @return The width of this <code>IntMap</code>
+	 */
+	@Override
+	public int getWidth() {
+		return this.width;
+	}
+	
+	/**
+	 * Gets the height of this <code>IntMap</code>
+	 * @return The height of this <code>IntMap</code>
+	 */
+	@Override
+	public int getHeight() {
+		return this.height;
+	}
+	
+	/**
+	 * Copies the values into a new <code>LinearIntMap</code>
+	 * @return A new <code>IntMap</code> with identical data to this one.
+	 */
+	@Override
+	public LinearIntMap clone() {
+		var copy = new LinearIntMap(width, height);
+		final int[] row = new int[width];
+		for(int y = 0; y < height; y++){
+			getRegion(0, y, width, 1, row, 0, width);
+			copy.setRow(y, row, 0);
+		}
+		return copy;
+	}
+}
@@ -1,9 +1,9 @@
 package net.plantabyte.drptrace.intmaps;
 
+import net.plantabyte.drptrace.ImmutableIntMap;
 import net.plantabyte.drptrace.IntMap;
-import net.plantabyte.drptrace.geometry.Vec2i;
 
-import java.util.LinkedList;
+import java.util.Arrays;
 
 /**
  * This class provides static utility functions to facilitate the usage of <code>IntMap</code>s
@@ -12,24 +12,82 @@ public class IntMapUtil {
 
 	/**
 	 * Performs a flood-fill operation in <code>source</code>, setting the corresponding
-	 * filled bits in <code>searchedMap</code> to 1.
+	 * filled bits in <code>searchedMap</code> to 1. Pixels whose bit is already set
+	 * are not filled (nor filled through). The pending pixels are kept as
+	 * coordinates on an <code>int</code> stack and marked as soon as they are
+	 * found, so no objects are created per pixel. If <code>source</code> is a
+	 * <code>BorderedIntMap</code> (or a frozen one), the neighbors are read by index without range
+	 * checks (the border never matches the fill color).
 	 * @param source Source IntMap
 	 * @param searchedMap Map used to keep track of what is (already) filled
 	 * @param x x coordinate of start of flood fill
 	 * @param y y coordinate of start of flood fill
 	 */
 	public static void floodFill(final IntMap source, final ZOrderBinaryMap searchedMap, final int x, final int y){
+		if(source instanceof ImmutableIntMap){
+			floodFill(((ImmutableIntMap) source).getSource(), searchedMap, x, y);
+			return;
+		}
 		final int color = source.get(x,y);
-		final var Q = new LinkedList<Vec2i>();
-		Q.push(new Vec2i(x, y));
-		while(Q.size() > 0){
-			var pop = Q.pop();
-			searchedMap.set(pop.x, pop.y, (byte)1);
-			Vec2i[] neighbors = {pop.up(), pop.left(), pop.down(), pop.right()};
-			for(var n : neighbors){
-				if(source.isInRange(n.x, n.y) && source.get(n.x, n.y) == color && searchedMap.get(n.x, n.y) == 0){
-					// n is same color and not yet searched
-					Q.push(n);
+		if(source instanceof BorderedIntMap){
+			floodFill((BorderedIntMap) source, searchedMap, x, y, color);
+			return;
+		}
+		final int w = source.getWidth(), h = source.getHeight();
+		int[] stack = new int[64]; // x, y pairs
+		int top = 0;
+		searchedMap.set(x, y, (byte)1);
+		stack[top++] = x;
+		stack[top++] = y;
+		while(top > 0){
+			final int py = stack[--top], px = stack[--top];
+			if(stack.length - top < 8) stack = Arrays.copyOf(stack, stack.length * 2);
+			if(py + 1 < h && source.get(px, py + 1) == color && searchedMap.get(px, py + 1) == 0){
+				searchedMap.set(px, py + 1, (byte)1);
+				stack[top++] = px;
+				stack[top++] = py + 1;
+			}
+			if(px > 0 && source.get(px - 1, py) == color && searchedMap.get(px - 1, py) == 0){
+				searchedMap.set(px - 1, py, (byte)1);
+				stack[top++] = px - 1;
+				stack[top++] = py;
+			}
+			if(py > 0 && source.get(px, py - 1) == color && searchedMap.get(px, py - 1) == 0){
+				searchedMap.set(px, py - 1, (byte)1);
+				stack[top++] = px;
+				stack[top++] = py - 1;
+			}
+			if(px + 1 < w && source.get(px + 1, py) == color && searchedMap.get(px + 1, py) == 0){
+				searchedMap.set(px + 1, py, (byte)1);
+				stack[top++] = px + 1;
+				stack[top++] = py;
+			}
+		}
+	}
+	
+	private static void floodFill(final BorderedIntMap source, final ZOrderBinaryMap searchedMap, final int x, final int y,
+			final int color){
+		final int s = source.getStride();
+		final int origin = source.indexOf(0, 0);
+		// change in pixel index and coordinates for each neighbor (up, left, down, right)
+		final int[] step = {s, -1, -s, 1};
+		final int[] dx = {0, -1, 0, 1};
+		final int[] dy = {1, 0, -1, 0};
+		int[] stack = new int[32]; // pixel indices
+		int top = 0;
+		searchedMap.set(x, y, (byte)1);
+		stack[top++] = source.indexOf(x, y);
+		while(top > 0){
+			final int p = stack[--top];
+			if(stack.length - top < 4) stack = Arrays.copyOf(stack, stack.length * 2);
+			final int px = (p - origin) % s, py = (p - origin) / s;
+			for(int d = 0; d < 4; d++){
+				final int n = p + step[d];
+				if(source.getAt(n) != color) continue;
+				final int nx = px + dx[d], ny = py + dy[d];
+				if(searchedMap.get(nx, ny) == 0){
+					searchedMap.set(nx, ny, (byte)1);
+					stack[top++] = n;
 				}
 			}
 		}
@@ -0,0 +1,245 @@
+/*
+MIT License
+
+Copyright (c) 2021 Dr. Christopher C. Hall, aka DrPlantabyte
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package net.plantabyte.drptrace.intmaps;
+
+import net.plantabyte.drptrace.ImmutableIntMap;
+import net.plantabyte.drptrace.IntMap;
+
+/**
+ * <code>IntMap</code> implementation which stores its values in a single
+ * array in row-major order (<code>data[y * width + x]</code>). Access is a
+ * single multiply-add, which makes it faster than <code>ZOrderIntMap</code>
+ * for algorithms that scan the raster row by row (eg importing an image), and
+ * whole rows can be copied in and out with <code>getRow(...)</code>,
+ * <code>setRow(...)</code> and <code>copyRow(...)</code>.
+ */
+public final class LinearIntMap extends IntMap {
+	private final int width;
+	private final int height;
+	private final int[] data;
+	
+	/**
+	 * Constructs a new instance with the given width and height. All values start
+	 * as zero.
+	 * @param width width of the raster
+	 * @param height height of the raster
+	 */
+	public LinearIntMap(int width, int height){
+		this.width = width;
+		this.height = height;
+		this.data = new int[Math.multiplyExact(width, height)];
+	}
+	
+	/**
+	 * Constructs a new instance from the given 2D array, copying the data from
+	 * the provided array. The 2D array is assumed to be in matrix format, so it is
+	 * indexed as <code>rowColMatrix[y][x]</code>
+	 * @param rowColMatrix 2D array in matrix index ordering (that is,
+	 *                     rowColMatrix[row index][column index], aka y-x order)
+	 * @return A row-major 2D integer map corresponding to the given matrix
+	 */
+	public static LinearIntMap fromMatrix(int[][] rowColMatrix){
+		final int w=rowColMatrix[0].length, h=rowColMatrix.length;
+		var out = new LinearIntMap(w, h);
+		for(int y = 0; y < h; y++){
+			out.setRow(y, rowColMatrix[y], 0);
+		}
+		return out;
+	}
+	
+	private int index(final int x, final int y){
+		if(x < 0 || x >= width) throw new ArrayIndexOutOfBoundsException(String.format("X coordinate %s is out of bounds (width %s)", x, width));
+		return y * width + x;
+	}
+	
+	private int rowStart(final int y){
+		if(y < 0 || y >= height) throw new ArrayIndexOutOfBoundsException(String.format("Row %s is out of bounds (height %s)", y, height));
+		return y * width;
+	}
+	
+	/**
+	 * Get the value at the given (X,Y) coordinate.
+	 * @param x X coordinate
+	 * @param y Y coordinate
+	 * @return An integer value
+	 * @throws ArrayIndexOutOfBoundsException thrown if (X,Y) is outside the
+	 * bounds of this <code>IntMap</code>
+	 */
+	@Override
+	public int get(final int x, final int y)
+			throws ArrayIndexOutOfBoundsException {
+		return data[index(x, y)];
+	}
+	
+	/**
+	 * Sets the value at a given coordinate to the specified value.
+	 * @param x X coordinate
+	 * @param y Y coordinate
+	 * @param value value to store at (X,Y)
+	 * @return Returns the previous value that was overwritten.
+	 * @throws ArrayIndexOutOfBoundsException Thrown if coordinate (X,Y) is out
+	 * of bounds
+	 * @throws UnsupportedOperationException Thrown if this map has been frozen
+	 */
+	public int set(final int x, final int y, final int value)
+			throws ArrayIndexOutOfBoundsException {
+		checkNotFrozen();
+		final int i = index(x, y);
+		int t = data[i];
+		data[i] = value;
+		return t;
+	}
+	
+	/**
+	 * Copies the values of a rectangular area into an array, in row order, such
+	 * that the value at (x+i, y+j) is stored at
+	 * <code>dst[offset + j*stride + i]</code>.
+	 * @param x X coordinate of the first column of the area
+	 * @param y Y coordinate of the first row of the area
+	 * @param width width of the area
+	 * @param height height of the area
+	 * @param dst destination array
+	 * @param offset index in <code>dst</code> of the value at (x,y)
+	 * @param stride distance in <code>dst</code> between consecutive rows
+	 * @throws ArrayIndexOutOfBoundsException thrown if the area is not inside
+	 * the bounds of this <code>IntMap</code>, or <code>dst</code> is too small
+	 */
+	@Override
+	public void getRegion(final int x, final int y, final int width, final int height,
+			final int[] dst, final int offset, final int stride) throws ArrayIndexOutOfBoundsException {
+		checkRegion(x, y, width, height);
+		for(int j = 0; j < height; j++){
+			System.arraycopy(data, (y + j) * this.width + x, dst, offset + j * stride, width);
+		}
+	}
+	
+	/**
+	 * Sets the values of a rectangular area from an array, in row order, such
+	 * that (x+i, y+j) is set to <code>src[offset + j*stride + i]</code>.
+	 * @param x X coordinate of the first column of the area
+	 * @param y Y coordinate of the first row of the area
+	 * @param width width of the area
+	 * @param height height of the area
+	 * @param src source array
+	 * @param offset index in <code>src</code> of the value for (x,y)
+	 * @param stride distance in <code>src</code> between consecutive rows
+	 * @throws ArrayIndexOutOfBoundsException thrown if the area is not inside
+	 * the bounds of this <code>IntMap</code>, or <code>src</code> is too small
+	 * @throws UnsupportedOperationException Thrown if this map has been frozen
+	 */
+	public void setRegion(final int x, final int y, final int width, final int height,
+			final int[] src, final int offset, final int stride) throws ArrayIndexOutOfBoundsException {
+		checkNotFrozen();
+		checkRegion(x, y, width, height);
+		for(int j = 0; j < height; j++){
+			System.arraycopy(src, offset + j * stride, data, (y + j) * this.width + x, width);
+		}
+	}
+	
+	/**
+	 * Copies a whole row of values into an array
+	 * @param y Y coordinate of the row
+	 * @param dst destination array
+	 * @param dstOffset index in <code>dst</code> which receives the value at
+	 *                  x = 0
+	 * @throws ArrayIndexOutOfBoundsException Thrown if the row is out of bounds
+	 * or <code>dst</code> is too short
+	 */
+	public void getRow(final int y, final int[] dst, final int dstOffset) throws ArrayIndexOutOfBoundsException {
+		System.arraycopy(data, rowStart(y), dst, dstOffset, width);
+	}
+	
+	/**
+	 * Sets a whole row of values from an array
+	 * @param y Y coordinate of the row
+	 * @param src source array
+	 * @param srcOffset index in <code>src</code> of the value for x = 0
+	 * @throws ArrayIndexOutOfBoundsException Thrown if the row is out of bounds
+	 * or <code>src</code> is too short
+	 * @throws UnsupportedOperationException Thrown if this map has been frozen
+	 */
+	public void setRow(final int y, final int[] src, final int srcOffset) throws ArrayIndexOutOfBoundsException {
+		checkNotFrozen();
+		System.arraycopy(src, srcOffset, data, rowStart(y), width);
+	}
+	
+	/**
+	 * Copies a row of another <code>LinearIntMap</code> (or this one) into a
+	 * row of this map
+	 * @param src the map to copy from, which must have the same width
+	 * @param srcY Y coordinate of the row in <code>src</code>
+	 * @param y Y coordinate of the row in this map
+	 * @throws IllegalArgumentException Thrown if the widths differ
+	 * @throws ArrayIndexOutOfBoundsException Thrown if either row is out of
+	 * bounds
+	 * @throws UnsupportedOperationException Thrown if this map has been frozen
+	 */
+	public void copyRow(final LinearIntMap src, final int srcY, final int y)
+			throws IllegalArgumentException, ArrayIndexOutOfBoundsException {
+		checkNotFrozen();
+		if(src.width != width){
+			throw new IllegalArgumentException(String.format("Cannot copy a row of width %s into a row of width %s", src.width, width));
+		}
+		System.arraycopy(src.data, src.rowStart(srcY), data, rowStart(y), width);
+	}
+	
+	/**
+	 * Gets the width of this <code>IntMap</code>
+	 * @return The width of this <code>IntMap</code>
+	 */
+	@Override
+	public int getWidth() {
+		return this.width;
+	}
+	
+	/**
+	 * Gets the height of this <code>IntMap</code>
+	 * @return The height of this <code>IntMap</code>
+	 */
+	@Override
+	public int getHeight() {
+		return this.height;
+	}
+	
+	/**
+	 * Makes this map read-only and returns an immutable, thread-safe view of it,
+	 * without copying (see <code>IntMap.freeze()</code>)
+	 * @return An immutable view of this map
+	 */
+	@Override
+	public ImmutableIntMap freeze(){
+		return freezeInPlace();
+	}
+	
+	/**
+	 * Creates a deep-copy clone
+	 * @return A new <code>IntMap</code> with identical data to this one.
+	 */
+	@Override
+	public LinearIntMap clone() {
+		var b = new LinearIntMap(getWidth(), getHeight());
+		System.arraycopy(this.data, 0, b.data, 0, this.data.length);
+		return b;
+	}
+}
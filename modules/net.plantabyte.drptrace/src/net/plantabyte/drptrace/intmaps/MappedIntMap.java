@@ -0,0 +1,358 @@
+/*
+MIT License
+
+Copyright (c) 2021 Dr. Christopher C. Hall, aka DrPlantabyte
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package net.plantabyte.drptrace.intmaps;
+
+import net.plantabyte.drptrace.ImmutableIntMap;
+import net.plantabyte.drptrace.IntMap;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <code>IntMap</code> implementation whose values are stored in a file which
+ * is memory-mapped (see <code>FileChannel.map(...)</code>), so that rasters
+ * larger than the Java heap can be traced while the operating system pages
+ * the data in and out on demand. The file can be reopened later with
+ * <code>open(Path)</code> without parsing anything.
+ * <p>
+ * The values are stored either in row-major order or, if created with
+ * <code>tiled</code> set to <code>true</code>, in Z-ordered tiles of 16x16
+ * pixels (the same layout as <code>ZOrderIntMap</code>), which keeps
+ * neighboring rows on the same memory page. The file starts with a 16 byte
+ * header (magic number, width, height and layout), followed by one 32-bit
+ * little-endian value per pixel (plus the padding of partial tiles).
+ * </p>
+ * Changes are written to the file by the operating system at some point after
+ * <code>set(...)</code>; call <code>flush()</code> to write them immediately.
+ */
+public final class MappedIntMap extends IntMap {
+	/** "DRPM" */
+	private static final int MAGIC = 0x4452504D;
+	private static final int LINEAR = 0;
+	private static final int TILED = 1;
+	/** the header is this many ints */
+	private static final int HEADER = 4;
+	/** each mapped segment holds 2^SEGMENT_BITS ints (1 GiB) */
+	private static final int SEGMENT_BITS = 28;
+	private static final int SEGMENT_MASK = (1 << SEGMENT_BITS) - 1;
+	private static final byte[] ZLUT = {
+			0b00000000,
+			0b00000001,
+			0b00000100,
+			0b00000101,
+			0b00010000,
+			0b00010001,
+			0b00010100,
+			0b00010101,
+			0b01000000,
+			0b01000001,
+			0b01000100,
+			0b01000101,
+			0b01010000,
+			0b01010001,
+			0b01010100,
+			0b01010101
+	};
+	
+	private final Path file;
+	private final int width;
+	private final int height;
+	private final boolean tiled;
+	private final int tilesPerRow;
+	private final boolean writable;
+	private final MappedByteBuffer[] buffers;
+	private final IntBuffer[] segments;
+	
+	private MappedIntMap(Path file, FileChannel channel, int width, int height, boolean tiled, boolean writable)
+			throws IOException {
+		this.file = file;
+		this.width = width;
+		this.height = height;
+		this.tiled = tiled;
+		this.tilesPerRow = (width + 15) >>> 4;
+		this.writable = writable;
+		final long ints = HEADER + valueCount(width, height, tiled);
+		final int count = (int)((ints + SEGMENT_MASK) >>> SEGMENT_BITS);
+		this.buffers = new MappedByteBuffer[count];
+		this.segments = new IntBuffer[count];
+		final var mode = writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY;
+		for(int s = 0; s < count; s++){
+			final long start = (long) s << SEGMENT_BITS;
+			final long size = Math.min(ints - start, 1L << SEGMENT_BITS);
+			buffers[s] = channel.map(mode, start * 4, size * 4);
+			buffers[s].order(ByteOrder.LITTLE_ENDIAN);
+			segments[s] = buffers[s].asIntBuffer();
+		}
+	}
+	
+	private static long valueCount(final int width, final int height, final boolean tiled){
+		if(tiled) return 256L * ((width + 15) >>> 4) * ((height + 15) >>> 4);
+		return (long) width * height;
+	}
+	
+	/**
+	 * Creates a new file (replacing any existing file) holding a raster of the
+	 * given size, and maps it. All values start as zero.
+	 * @param file the file to create
+	 * @param width width of the raster
+	 * @param height height of the raster
+	 * @param tiled if <code>true</code>, the values are stored in Z-ordered
+	 *              tiles of 16x16 pixels; if <code>false</code>, in row-major
+	 *              order
+	 * @return A new <code>MappedIntMap</code> backed by <code>file</code>
+	 * @throws IOException Thrown if the file cannot be created or mapped
+	 * @throws IllegalArgumentException Thrown if the width or height is negative
+	 */
+	public static MappedIntMap create(Path file, int width, int height, boolean tiled)
+			throws IOException, IllegalArgumentException {
+		if(width < 0 || height < 0){
+			throw new IllegalArgumentException(String.format("Invalid size: %sx%s", width, height));
+		}
+		try(var channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ, StandardOpenOption.WRITE)){
+			final var map = new MappedIntMap(file, channel, width, height, tiled, true);
+			final var header = map.segments[0];
+			header.put(0, MAGIC);
+			header.put(1, width);
+			header.put(2, height);
+			header.put(3, tiled ? TILED : LINEAR);
+			return map;
+		}
+	}
+	
+	/**
+	 * Maps an existing file created by <code>create(...)</code> for reading
+	 * and writing
+	 * @param file the file to open
+	 * @return A <code>MappedIntMap</code> backed by <code>file</code>
+	 * @throws IOException Thrown if the file cannot be read or is not a
+	 * <code>MappedIntMap</code> file
+	 */
+	public static MappedIntMap open(Path file) throws IOException {
+		return open(file, false);
+	}
+	
+	/**
+	 * Maps an existing file created by <code>create(...)</code>
+	 * @param file the file to open
+	 * @param readOnly if <code>true</code>, the file is mapped read-only and
+	 *                 <code>set(...)</code> throws an exception
+	 * @return A <code>MappedIntMap</code> backed by <code>file</code>
+	 * @throws IOException Thrown if the file cannot be read or is not a
+	 * <code>MappedIntMap</code> file
+	 */
+	public static MappedIntMap open(Path file, boolean readOnly) throws IOException {
+		final var options = readOnly
+				? new StandardOpenOption[]{StandardOpenOption.READ}
+				: new StandardOpenOption[]{StandardOpenOption.READ, StandardOpenOption.WRITE};
+		try(var channel = FileChannel.open(file, options)){
+			final var header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), HEADER * 4))
+					.order(ByteOrder.LITTLE_ENDIAN);
+			if(header.limit() < HEADER * 4 || header.getInt(0) != MAGIC){
+				throw new IOException(String.format("%s is not a MappedIntMap file", file));
+			}
+			final int width = header.getInt(4), height = header.getInt(8), layout = header.getInt(12);
+			if(width < 0 || height < 0 || (layout != LINEAR && layout != TILED)
+					|| channel.size() < 4 * (HEADER + valueCount(width, height, layout == TILED))){
+				throw new IOException(String.format("%s is not a valid MappedIntMap file", file));
+			}
+			return new MappedIntMap(file, channel, width, height, layout == TILED, !readOnly);
+		}
+	}
+	
+	private long index(final int x, final int y){
+		if(x < 0 || y < 0 || x >= width || y >= height){
+			throw new ArrayIndexOutOfBoundsException(String.format("(%s, %s) is out of bounds of %sx%s IntMap", x, y, width, height));
+		}
+		if(tiled){
+			final long tile = (long) tilesPerRow * (y >>> 4) + (x >>> 4);
+			return HEADER + ((tile << 8) | ZLUT[x & 0x0F] | (ZLUT[y & 0x0F] << 1));
+		}
+		return HEADER + (long) y * width + x;
+	}
+	
+	/**
+	 * Get the value at the given (X,Y) coordinate.
+	 * @param x X coordinate
+	 * @param y Y coordinate
+	 * @return An integer value
+	 * @throws ArrayIndexOutOfBoundsException thrown if (X,Y) is outside the
+	 * bounds of this <code>IntMap</code>
+	 */
+	@Override
+	public int get(final int x, final int y)
+			throws ArrayIndexOutOfBoundsException {
+		final long i = index(x, y);
+		return segments[(int)(i >>> SEGMENT_BITS)].get((int) i & SEGMENT_MASK);
+	}
+	
+	/**
+	 * Sets the value at a given coordinate to the specified value.
+	 * @param x X coordinate
+	 * @param y Y coordinate
+	 * @param value value to store at (X,Y)
+	 * @return Returns the previous value that was overwritten.
+	 * @throws ArrayIndexOutOfBoundsException Thrown if coordinate (X,Y) is out
+	 * of bounds
+	 * @throws UnsupportedOperationException Thrown if the file was opened
+	 * read-only or this map has been frozen
+	 */
+	public int set(final int x, final int y, final int value)
+			throws ArrayIndexOutOfBoundsException, UnsupportedOperationException {
+		checkNotFrozen();
+		if(!writable) throw new UnsupportedOperationException(String.format("%s was opened read-only", file));
+		final long i = index(x, y);
+		final var segment = segments[(int)(i >>> SEGMENT_BITS)];
+		final int t = segment.get((int) i & SEGMENT_MASK);
+		segment.put((int) i & SEGMENT_MASK, value);
+		return t;
+	}
+	
+	/**
+	 * Copies the values of a rectangular area into an array, in row order, such
+	 * that the value at (x+i, y+j) is stored at
+	 * <code>dst[offset + j*stride + i]</code>.
+	 * @param x X coordinate of the first column of the area
+	 * @param y Y coordinate of the first row of the area
+	 * @param width width of the area
+	 * @param height height of the area
+	 * @param dst destination array
+	 * @param offset index in <code>dst</code> of the value at (x,y)
+	 * @param stride distance in <code>dst</code> between consecutive rows
+	 * @throws ArrayIndexOutOfBoundsException thrown if the area is not inside
+	 * the bounds of this <code>IntMap</code>, or <code>dst</code> is too small
+	 */
+	@Override
+	public void getRegion(final int x, final int y, final int width, final int height,
+			final int[] dst, final int offset, final int stride) throws ArrayIndexOutOfBoundsException {
+		checkRegion(x, y, width, height);
+		if(tiled || width == 0){
+			super.getRegion(x, y, width, height, dst, offset, stride);
+			return;
+		}
+		for(int j = 0; j < height; j++){
+			final long start = index(x, y + j);
+			final int s = (int)(start >>> SEGMENT_BITS);
+			if(s == (int)((start + width - 1) >>> SEGMENT_BITS)){
+				// bulk copy through a private view, so that the position is not shared
+				segments[s].duplicate().position((int) start & SEGMENT_MASK).get(dst, offset + j * stride, width);
+			} else {
+				for(int i = 0; i < width; i++){
+					dst[offset + j * stride + i] = get(x + i, y + j);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Writes any changes to the file immediately
+	 */
+	public void flush(){
+		if(!writable) return;
+		for(var buffer : buffers){
+			buffer.force();
+		}
+	}
+	
+	/**
+	 * Gets the file holding the values
+	 * @return The path of the mapped file
+	 */
+	public Path getFile() {
+		return file;
+	}
+	
+	/**
+	 * Returns whether the values are stored in Z-ordered tiles
+	 * @return <code>true</code> for the tiled layout, <code>false</code> for
+	 * row-major order
+	 */
+	public boolean isTiled() {
+		return tiled;
+	}
+	
+	/**
+	 * Gets the width of this <code>IntMap</code>
+	 * @return The width of this <code>IntMap</code>
+	 */
+	@Override
+	public int getWidth() {
+		return this.width;
+	}
+	
+	/**
+	 * Gets the height of this <code>IntMap</code>
+	 * @return The height of this <code>IntMap</code>
+	 */
+	@Override
+	public int getHeight() {
+		return this.height;
+	}
+	
+	/**
+	 * Makes this map read-only and returns an immutable, thread-safe view of it,
+	 * without copying (see <code>IntMap.freeze()</code>). The file itself must
+	 * not be changed by other programs while the view is in use.
+	 * @return An immutable view of this map
+	 */
+	@Override
+	public ImmutableIntMap freeze(){
+		return freezeInPlace();
+	}
+	
+	/**
+	 * Creates a deep-copy clone, which is backed by a new temporary file (in
+	 * the same directory as this one) with the same layout. The temporary file
+	 * is deleted when the JVM exits.
+	 * @return A new <code>MappedIntMap</code> with identical data to this one.
+	 * @throws UncheckedIOException Thrown if the temporary file cannot be
+	 * created
+	 */
+	@Override
+	public MappedIntMap clone() throws UncheckedIOException {
+		try {
+			final var parent = file.toAbsolutePath().getParent();
+			final Path copyFile = Files.createTempFile(parent, "drptrace", ".map");
+			copyFile.toFile().deleteOnExit();
+			final var copy = create(copyFile, width, height, tiled);
+			for(int s = 0; s < segments.length; s++){
+				final var src = segments[s].duplicate();
+				src.position(s == 0 ? HEADER : 0);
+				final var dst = copy.segments[s].duplicate();
+				dst.position(s == 0 ? HEADER : 0);
+				dst.put(src);
+			}
+			return copy;
+		} catch(IOException e){
+			throw new UncheckedIOException(e);
+		}
+	}
+}
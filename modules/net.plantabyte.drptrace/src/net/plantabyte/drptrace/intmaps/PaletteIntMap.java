@@ -0,0 +1,269 @@
+/*
+MIT License
+
+Copyright (c) 2021 Dr. Christopher C. Hall, aka DrPlantabyte
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package net.plantabyte.drptrace.intmaps;
+
+import net.plantabyte.drptrace.ImmutableIntMap;
+import net.plantabyte.drptrace.IntMap;
+
+/**
+ * <code>IntMap</code> implementation for images with a limited number of
+ * colors (up to 65536), such as quantized images. Each pixel stores a 16-bit
+ * index into a palette, and <code>get(x,y)</code> returns the palette value
+ * (eg an ARGB color), so this map takes half the memory of a
+ * <code>ZOrderIntMap</code> while tracing to the same shapes. Like
+ * <code>ZOrderIntMap</code>, it uses Z-Ordering to improve cache coherence.
+ */
+public final class PaletteIntMap extends IntMap {
+	/** largest number of palette entries that a 16-bit index can address */
+	public static final int MAX_PALETTE_SIZE = 0x10000;
+	private static final byte[] ZLUT = {
+			0b00000000,
+			0b00000001,
+			0b00000100,
+			0b00000101,
+			0b00010000,
+			0b00010001,
+			0b00010100,
+			0b00010101,
+			0b01000000,
+			0b01000001,
+			0b01000100,
+			0b01000101,
+			0b01010000,
+			0b01010001,
+			0b01010100,
+			0b01010101
+	};
+	private final int width;
+	private final int height;
+	private final int chunksPerRow; // number of chunks wide
+	private final int[] palette;
+	private final char[] data;
+	
+	/**
+	 * Constructs a new instance with the given width, height and palette. All
+	 * pixels start as palette index 0.
+	 * @param width width of the raster
+	 * @param height height of the raster
+	 * @param palette the value of each palette index (this array is copied)
+	 * @throws IllegalArgumentException Thrown if the palette is empty or has
+	 * more than <code>MAX_PALETTE_SIZE</code> entries
+	 */
+	public PaletteIntMap(int width, int height, int[] palette) throws IllegalArgumentException {
+		if(palette.length == 0 || palette.length > MAX_PALETTE_SIZE){
+			throw new IllegalArgumentException(String.format("Invalid palette size: %s (must be from 1 to %s)",
+					palette.length, MAX_PALETTE_SIZE));
+		}
+		this.width = width;
+		this.height = height;
+		this.chunksPerRow = ((width >> 4) + 1);
+		this.palette = palette.clone();
+		this.data = new char[256 * chunksPerRow * ((height >> 4) + 1)];
+	}
+	
+	private int index(final int x, final int y){
+		int chunk = chunksPerRow * (y >>> 4) + (x >>> 4);
+		return (chunk << 8) | ZLUT[x & 0x0F] | (ZLUT[y & 0x0F] << 1);
+	}
+	
+	/**
+	 * Get the palette value of the pixel at the given (X,Y) coordinate.
+	 * @param x X coordinate
+	 * @param y Y coordinate
+	 * @return The palette value of the pixel
+	 * @throws ArrayIndexOutOfBoundsException thrown if (X,Y) is outside the
+	 * bounds of this <code>IntMap</code>
+	 */
+	@Override
+	public int get(final int x, final int y)
+			throws ArrayIndexOutOfBoundsException {
+		return palette[data[index(x, y)]];
+	}
+	
+	/**
+	 * Get the palette index of the pixel at the given (X,Y) coordinate.
+	 * @param x X coordinate
+	 * @param y Y coordinate
+	 * @return A palette index, from 0 to <code>getPaletteSize()-1</code>
+	 * @throws ArrayIndexOutOfBoundsException thrown if (X,Y) is outside the
+	 * bounds of this <code>IntMap</code>
+	 */
+	public int getIndex(final int x, final int y)
+			throws ArrayIndexOutOfBoundsException {
+		return data[index(x, y)];
+	}
+	
+	/**
+	 * Sets the palette index of the pixel at a given coordinate.
+	 * @param x X coordinate
+	 * @param y Y coordinate
+	 * @param paletteIndex palette index to store at (X,Y)
+	 * @return Returns the previous palette index that was overwritten.
+	 * @throws ArrayIndexOutOfBoundsException Thrown if coordinate (X,Y) is out
+	 * of bounds
+	 * @throws IllegalArgumentException Thrown if the palette index is not in
+	 * the palette
+	 * @throws UnsupportedOperationException Thrown if this map has been frozen
+	 */
+	public int setIndex(final int x, final int y, final int paletteIndex)
+			throws ArrayIndexOutOfBoundsException, IllegalArgumentException {
+		checkNotFrozen();
+		if(paletteIndex < 0 || paletteIndex >= palette.length){
+			throw new IllegalArgumentException(String.format("Palette index %s is out of range (palette size %s)",
+					paletteIndex, palette.length));
+		}
+		final int i = index(x, y);
+		int t = data[i];
+		data[i] = (char) paletteIndex;
+		return t;
+	}
+	
+	/**
+	 * Sets the palette indices of a rectangular area from an array, in row
+	 * order, such that the index at (x+i, y+j) is read from
+	 * <code>src[offset + j*stride + i]</code>. This is the bulk counterpart of
+	 * <code>setIndex(x, y, paletteIndex)</code>, eg for storing the output of a
+	 * color quantizer one row at a time.
+	 * @param x X coordinate of the first column of the area
+	 * @param y Y coordinate of the first row of the area
+	 * @param width width of the area
+	 * @param height height of the area
+	 * @param src source array of palette indices
+	 * @param offset index in <code>src</code> of the palette index for (x,y)
+	 * @param stride distance in <code>src</code> between consecutive rows
+	 * @throws ArrayIndexOutOfBoundsException thrown if the area is not inside
+	 * the bounds of this <code>IntMap</code>, or <code>src</code> is too small
+	 * @throws IllegalArgumentException Thrown if a palette index is not in the
+	 * palette (the pixels before it have already been set)
+	 * @throws UnsupportedOperationException Thrown if this map has been frozen
+	 */
+	public void setIndexRegion(final int x, final int y, final int width, final int height,
+			final int[] src, final int offset, final int stride)
+			throws ArrayIndexOutOfBoundsException, IllegalArgumentException {
+		checkNotFrozen();
+		checkRegion(x, y, width, height);
+		for(int j = 0; j < height; j++){
+			final int py = y + j;
+			final int rowBase = ((chunksPerRow * (py >>> 4)) << 8) | (ZLUT[py & 0x0F] << 1);
+			final int row = offset + j * stride;
+			for(int i = 0; i < width; i++){
+				final int px = x + i;
+				final int paletteIndex = src[row + i];
+				if(paletteIndex < 0 || paletteIndex >= palette.length){
+					throw new IllegalArgumentException(String.format("Palette index %s is out of range (palette size %s)",
+							paletteIndex, palette.length));
+				}
+				data[(rowBase + ((px >>> 4) << 8)) | ZLUT[px & 0x0F]] = (char) paletteIndex;
+			}
+		}
+	}
+	
+	/**
+	 * Gets the number of entries in the palette
+	 * @return palette size
+	 */
+	public int getPaletteSize(){
+		return palette.length;
+	}
+	
+	/**
+	 * Gets the value of a palette entry
+	 * @param paletteIndex palette index
+	 * @return the value returned by <code>get(x,y)</code> for pixels with this
+	 * palette index
+	 * @throws ArrayIndexOutOfBoundsException Thrown if the palette index is not
+	 * in the palette
+	 */
+	public int getPaletteValue(final int paletteIndex) throws ArrayIndexOutOfBoundsException {
+		return palette[paletteIndex];
+	}
+	
+	/**
+	 * Copies the palette values of a rectangular area into an array, in row
+	 * order, such that the value at (x+i, y+j) is stored at
+	 * <code>dst[offset + j*stride + i]</code>.
+	 * @param x X coordinate of the first column of the area
+	 * @param y Y coordinate of the first row of the area
+	 * @param width width of the area
+	 * @param height height of the area
+	 * @param dst destination array
+	 * @param offset index in <code>dst</code> of the value at (x,y)
+	 * @param stride distance in <code>dst</code> between consecutive rows
+	 * @throws ArrayIndexOutOfBoundsException thrown if the area is not inside
+	 * the bounds of this <code>IntMap</code>, or <code>dst</code> is too small
+	 */
+	@Override
+	public void getRegion(final int x, final int y, final int width, final int height,
+			final int[] dst, final int offset, final int stride) throws ArrayIndexOutOfBoundsException {
+		checkRegion(x, y, width, height);
+		for(int j = 0; j < height; j++){
+			final int py = y + j;
+			final int rowBase = ((chunksPerRow * (py >>> 4)) << 8) | (ZLUT[py & 0x0F] << 1);
+			final int row = offset + j * stride;
+			for(int i = 0; i < width; i++){
+				final int px = x + i;
+				dst[row + i] = palette[data[(rowBase + ((px >>> 4) << 8)) | ZLUT[px & 0x0F]]];
+			}
+		}
+	}
+	
+	/**
+	 * Gets the width of this <code>IntMap</code>
+	 * @return The width of this <code>IntMap</code>
+	 */
+	@Override
+	public int getWidth() {
+		return this.width;
+	}
+	
+	/**
+	 * Gets the height of this <code>IntMap</code>
+	 * @return The height of this <code>IntMap</code>
+	 */
+	@Override
+	public int getHeight() {
+		return this.height;
+	}
+	
+	/**
+	 * Makes this map read-only and returns an immutable, thread-safe view of it,
+	 * without copying (see <code>IntMap.freeze()</code>)
+	 * @return An immutable view of this map
+	 */
+	@Override
+	public ImmutableIntMap freeze(){
+		return freezeInPlace();
+	}
+	
+	/**
+	 * Creates a deep-copy clone
+	 * @return A new <code>IntMap</code> with identical data to this one.
+	 */
+	@Override
+	public PaletteIntMap clone() {
+		var b = new PaletteIntMap(getWidth(), getHeight(), palette);
+		System.arraycopy(this.data, 0, b.data, 0, this.data.length);
+		return b;
+	}
+}
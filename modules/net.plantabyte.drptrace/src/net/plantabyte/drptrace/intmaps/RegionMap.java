@@ -0,0 +1,450 @@
+/*
+MIT License
+
+Copyright (c) 2021 Dr. Christopher C. Hall, aka DrPlantabyte
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package net.plantabyte.drptrace.intmaps;
+
+import net.plantabyte.drptrace.ImmutableIntMap;
+import net.plantabyte.drptrace.IntMap;
+
+import java.util.Arrays;
+
+/**
+ * A <code>RegionMap</code> holds the connected-component labeling of another
+ * <code>IntMap</code>: every contiguous (4-connected) patch of identical values
+ * in the source is assigned its own region label, and <code>get(x,y)</code>
+ * returns the label of the region containing (X,Y). Regions are numbered from
+ * 0 in the order that their first pixel is encountered when scanning the
+ * source row by row, which is the order in which <code>Tracer</code> emits
+ * shapes.
+ * <p>
+ * For each region, the seed pixel (the first pixel of the region in scan
+ * order), the number of pixels, the bounding box and the source value are
+ * recorded while labeling, so that no flood-fill is needed to find them.
+ * </p>
+ */
+public final class RegionMap extends IntMap {
+	private final int width;
+	private final int height;
+	private final int[] labels; // row-major
+	private int regionCount;
+	private int[] seeds; // seed pixel index (y * width + x)
+	private int[] areas;
+	private int[] bounds; // minX, minY, maxX, maxY
+	private int[] values;
+	
+	private RegionMap(final int width, final int height){
+		this.width = width;
+		this.height = height;
+		this.labels = new int[width * height];
+	}
+	
+	/**
+	 * Labels the connected regions of the given <code>IntMap</code> using a
+	 * two-pass union-find algorithm. The first pass assigns provisional labels
+	 * and records which of them touch, the second pass resolves each pixel to
+	 * its final label and gathers the region statistics.
+	 * @param source the raster to label
+	 * @return A new <code>RegionMap</code> of the same size as
+	 * <code>source</code>
+	 */
+	public static RegionMap label(final IntMap source){
+		final int w = source.getWidth(), h = source.getHeight();
+		final var out = new RegionMap(w, h);
+		final int[] labels = out.labels;
+		// pass 1: provisional labels, with equivalences stored as a union-find
+		// forest in which a parent is always smaller than its child
+		int[] parent = new int[Math.max(16, (w + h) * 2)];
+		int[] firstPixel = new int[parent.length];
+		int count = 0;
+		int[] prevRow = new int[w];
+		int[] row = new int[w];
+		for(int y = 0; y < h; y++){
+			final int rowStart = y * w;
+			source.getRegion(0, y, w, 1, row, 0, w);
+			for(int x = 0; x < w; x++){
+				final int v = row[x];
+				final int i = rowStart + x;
+				final boolean sameLeft = x > 0 && row[x - 1] == v;
+				final boolean sameBelow = y > 0 && prevRow[x] == v;
+				if(sameLeft && sameBelow){
+					final int a = labels[i - 1];
+					final int b = labels[i - w];
+					labels[i] = a;
+					if(a != b) union(parent, a, b);
+				} else if(sameLeft){
+					labels[i] = labels[i - 1];
+				} else if(sameBelow){
+					labels[i] = labels[i - w];
+				} else {
+					if(count == parent.length){
+						parent = Arrays.copyOf(parent, count * 2);
+						firstPixel = Arrays.copyOf(firstPixel, count * 2);
+					}
+					parent[count] = count;
+					firstPixel[count] = i;
+					labels[i] = count++;
+				}
+			}
+			final int[] t = prevRow;
+			prevRow = row;
+			row = t;
+		}
+		// resolve the forest to compact labels, overwriting it in place; because
+		// the root of each tree is its smallest provisional label, which was
+		// created at the first pixel of the region, the compact labels come out
+		// in scan order
+		int regionCount = 0;
+		for(int p = 0; p < count; p++){
+			if(parent[p] == p){
+				parent[p] = regionCount;
+				firstPixel[regionCount] = firstPixel[p];
+				regionCount++;
+			} else {
+				// parent is smaller, so it has already been resolved
+				parent[p] = parent[parent[p]];
+			}
+		}
+		out.regionCount = regionCount;
+		out.seeds = Arrays.copyOf(firstPixel, regionCount);
+		out.areas = new int[regionCount];
+		out.bounds = new int[4 * regionCount];
+		out.values = new int[regionCount];
+		for(int r = 0; r < regionCount; r++){
+			final int sx = out.seeds[r] % w, sy = out.seeds[r] / w;
+			out.bounds[4 * r] = sx;
+			out.bounds[4 * r + 1] = sy; // no pixel of the region comes before its seed
+			out.bounds[4 * r + 2] = sx;
+			out.bounds[4 * r + 3] = sy;
+			out.values[r] = source.get(sx, sy);
+		}
+		// pass 2: final labels and region statistics
+		final int[] areas = out.areas, bounds = out.bounds;
+		for(int y = 0; y < h; y++){
+			final int rowStart = y * w;
+			for(int x = 0; x < w; x++){
+				final int r = parent[labels[rowStart + x]];
+				labels[rowStart + x] = r;
+				areas[r]++;
+				final int b = 4 * r;
+				if(x < bounds[b]) bounds[b] = x;
+				if(x > bounds[b + 2]) bounds[b + 2] = x;
+				bounds[b + 3] = y; // rows are scanned in increasing order
+			}
+		}
+		return out;
+	}
+	
+	private static void union(final int[] parent, int a, int b){
+		// path halving keeps the trees shallow (and parents smaller than children)
+		while(parent[a] != a) a = parent[a] = parent[parent[a]];
+		while(parent[b] != b) b = parent[b] = parent[parent[b]];
+		if(a < b){
+			parent[b] = a;
+		} else if(b < a){
+			parent[a] = b;
+		}
+	}
+	
+	private int index(final int x, final int y){
+		if(x < 0 || x >= width) throw new ArrayIndexOutOfBoundsException(String.format("X coordinate %s is out of bounds (width %s)", x, width));
+		return y * width + x;
+	}
+	
+	/**
+	 * Gets the number of regions in this map. Region labels range from 0 to
+	 * <code>getRegionCount()-1</code>.
+	 * @return The number of regions
+	 */
+	public int getRegionCount(){
+		return regionCount;
+	}
+	
+	/**
+	 * Gets the X coordinate of the seed pixel of a region, which is the first
+	 * pixel of that region when scanning the map row by row.
+	 * @param region region label
+	 * @return X coordinate of the seed pixel
+	 */
+	public int getSeedX(final int region){
+		return seeds[region] % width;
+	}
+	
+	/**
+	 * Gets the Y coordinate of the seed pixel of a region, which is the first
+	 * pixel of that region when scanning the map row by row.
+	 * @param region region label
+	 * @return Y coordinate of the seed pixel
+	 */
+	public int getSeedY(final int region){
+		return seeds[region] / width;
+	}
+	
+	/**
+	 * Gets the number of pixels in a region
+	 * @param region region label
+	 * @return The area of the region, in pixels
+	 */
+	public int getArea(final int region){
+		return areas[region];
+	}
+	
+	/**
+	 * Gets the smallest X coordinate of any pixel in a region
+	 * @param region region label
+	 * @return Left edge of the bounding box (inclusive)
+	 */
+	public int getMinX(final int region){
+		return bounds[4 * region];
+	}
+	
+	/**
+	 * Gets the smallest Y coordinate of any pixel in a region
+	 * @param region region label
+	 * @return Bottom edge of the bounding box (inclusive)
+	 */
+	public int getMinY(final int region){
+		return bounds[4 * region + 1];
+	}
+	
+	/**
+	 * Gets the largest X coordinate of any pixel in a region
+	 * @param region region label
+	 * @return Right edge of the bounding box (inclusive)
+	 */
+	public int getMaxX(final int region){
+		return bounds[4 * region + 2];
+	}
+	
+	/**
+	 * Gets the largest Y coordinate of any pixel in a region
+	 * @param region region label
+	 * @return Top edge of the bounding box (inclusive)
+	 */
+	public int getMaxY(final int region){
+		return bounds[4 * region + 3];
+	}
+	
+	/**
+	 * Gets the value that all pixels of a region had in the source
+	 * <code>IntMap</code> (eg the color of the patch)
+	 * @param region region label
+	 * @return The source value of the region
+	 */
+	public int getValue(final int region){
+		return values[region];
+	}
+	
+	/**
+	 * Creates a view of the source raster in which every region smaller than
+	 * <code>minimumArea</code> pixels takes the value of the neighboring region
+	 * that shares the longest border with it, so that noise specks are merged
+	 * into the surrounding patch. Only neighbors that are not too small
+	 * themselves are considered, so a small region which borders only other
+	 * small regions keeps its own value (ties go to the earlier region).
+	 * @param minimumArea smallest number of pixels a region may have
+	 * @return A read-only <code>IntMap</code> of the same size as this one, or
+	 * <code>null</code> if no region needs to be merged
+	 */
+	public IntMap despeckle(final int minimumArea){
+		final int w = width, h = height;
+		boolean anySmall = false;
+		for(int r = 0; r < regionCount && !anySmall; r++){
+			anySmall = areas[r] < minimumArea;
+		}
+		if(!anySmall) return null;
+		// every pixel edge between a small region and a large neighbor, as
+		// (small << 32 | neighbor), so that sorting groups the edges of each pair
+		final var borders = new LongList();
+		for(int y = 0; y < h; y++){
+			for(int x = 0; x < w; x++){
+				final int a = labels[y * w + x];
+				if(x + 1 < w) addBorder(borders, minimumArea, a, labels[y * w + x + 1]);
+				if(y + 1 < h) addBorder(borders, minimumArea, a, labels[(y + 1) * w + x]);
+			}
+		}
+		final long[] edges = borders.data;
+		Arrays.sort(edges, 0, borders.size);
+		final int[] target = new int[regionCount];
+		final int[] longest = new int[regionCount];
+		for(int r = 0; r < regionCount; r++){
+			target[r] = r;
+		}
+		for(int i = 0; i < borders.size; ){
+			final long key = edges[i];
+			int end = i + 1;
+			while(end < borders.size && edges[end] == key) end++;
+			final int small = (int)(key >>> 32), neighbor = (int) key;
+			// neighbors come in increasing order, so ties go to the earlier one
+			if(end - i > longest[small]){
+				longest[small] = end - i;
+				target[small] = neighbor;
+			}
+			i = end;
+		}
+		final int[] newValues = new int[regionCount];
+		for(int r = 0; r < regionCount; r++){
+			newValues[r] = values[target[r]];
+		}
+		return new RelabeledMap(labels, w, h, newValues);
+	}
+	
+	private void addBorder(final LongList borders, final int minimumArea, final int a, final int b){
+		if(a == b) return;
+		final boolean smallA = areas[a] < minimumArea, smallB = areas[b] < minimumArea;
+		if(smallA && !smallB) borders.add(((long) a << 32) | b);
+		if(smallB && !smallA) borders.add(((long) b << 32) | a);
+	}
+	
+	/**
+	 * Get the region label at the given (X,Y) coordinate.
+	 * @param x X coordinate
+	 * @param y Y coordinate
+	 * @return A region label
+	 * @throws ArrayIndexOutOfBoundsException thrown if (X,Y) is outside the
+	 * bounds of this <code>IntMap</code>
+	 */
+	@Override
+	public int get(final int x, final int y)
+			throws ArrayIndexOutOfBoundsException {
+		return labels[index(x, y)];
+	}
+	
+	/**
+	 * Copies the region labels of a rectangular area into an array, in row
+	 * order, such that the label at (x+i, y+j) is stored at
+	 * <code>dst[offset + j*stride + i]</code>.
+	 * @param x X coordinate of the first column of the area
+	 * @param y Y coordinate of the first row of the area
+	 * @param width width of the area
+	 * @param height height of the area
+	 * @param dst destination array
+	 * @param offset index in <code>dst</code> of the label at (x,y)
+	 * @param stride distance in <code>dst</code> between consecutive rows
+	 * @throws ArrayIndexOutOfBoundsException thrown if the area is not inside
+	 * the bounds of this <code>IntMap</code>, or <code>dst</code> is too small
+	 */
+	@Override
+	public void getRegion(final int x, final int y, final int width, final int height,
+			final int[] dst, final int offset, final int stride) throws ArrayIndexOutOfBoundsException {
+		checkRegion(x, y, width, height);
+		for(int j = 0; j < height; j++){
+			System.arraycopy(labels, (y + j) * this.width + x, dst, offset + j * stride, width);
+		}
+	}
+	
+	/**
+	 * Gets the width of this <code>IntMap</code>
+	 * @return The width of this <code>IntMap</code>
+	 */
+	@Override
+	public int getWidth() {
+		return width;
+	}
+	
+	/**
+	 * Gets the height of this <code>IntMap</code>
+	 * @return The height of this <code>IntMap</code>
+	 */
+	@Override
+	public int getHeight() {
+		return height;
+	}
+	
+	/**
+	 * Returns an immutable, thread-safe view of this map, without copying (this
+	 * map is already read-only)
+	 * @return An immutable view of this map
+	 */
+	@Override
+	public ImmutableIntMap freeze(){
+		return freezeInPlace();
+	}
+	
+	/**
+	 * Creates a deep-copy clone
+	 * @return A new <code>IntMap</code> with identical data to this one.
+	 */
+	@Override
+	public RegionMap clone() {
+		var copy = new RegionMap(width, height);
+		System.arraycopy(this.labels, 0, copy.labels, 0, this.labels.length);
+		copy.regionCount = this.regionCount;
+		copy.seeds = this.seeds.clone();
+		copy.areas = this.areas.clone();
+		copy.bounds = this.bounds.clone();
+		copy.values = this.values.clone();
+		return copy;
+	}
+	
+	/** Growable list of <code>long</code>s */
+	private static final class LongList {
+		long[] data = new long[16];
+		int size = 0;
+		void add(final long value){
+			if(size == data.length) data = Arrays.copyOf(data, size * 2);
+			data[size++] = value;
+		}
+	}
+	
+	/** Read-only map from each pixel's region to a value */
+	private static final class RelabeledMap extends IntMap {
+		private final int[] labels;
+		private final int width, height;
+		private final int[] values;
+		RelabeledMap(int[] labels, int width, int height, int[] values){
+			this.labels = labels;
+			this.width = width;
+			this.height = height;
+			this.values = values;
+		}
+		@Override public int get(final int x, final int y) {
+			if(x < 0 || x >= width) throw new ArrayIndexOutOfBoundsException(String.format("X coordinate %s is out of bounds (width %s)", x, width));
+			return values[labels[y * width + x]];
+		}
+		@Override public int getWidth() {
+			return width;
+		}
+		@Override public int getHeight() {
+			return height;
+		}
+		@Override public void getRegion(final int x, final int y, final int width, final int height,
+				final int[] dst, final int offset, final int stride) {
+			checkRegion(x, y, width, height);
+			for(int j = 0; j < height; j++){
+				final int src = (y + j) * this.width + x, row = offset + j * stride;
+				for(int i = 0; i < width; i++){
+					dst[row + i] = values[labels[src + i]];
+				}
+			}
+		}
+		@Override public IntMap clone() {
+			var copy = new ZOrderIntMap(width, height);
+			final int[] row = new int[width];
+			for(int y = 0; y < height; y++){
+				getRegion(0, y, width, 1, row, 0, width);
+				copy.setRegion(0, y, width, 1, row, 0, width);
+			}
+			return copy;
+		}
+	}
+}
@@ -0,0 +1,247 @@
+/*
+MIT License
+
+Copyright (c) 2021 Dr. Christopher C. Hall, aka DrPlantabyte
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package net.plantabyte.drptrace.intmaps;
+
+import net.plantabyte.drptrace.ImmutableIntMap;
+import net.plantabyte.drptrace.IntMap;
+
+import java.util.Arrays;
+
+/**
+ * Read-only <code>IntMap</code> implementation which stores each row as runs
+ * of equal values (run-length encoding). Images with large areas of flat
+ * color, such as rendered maps, diagrams and screenshots, take a small fraction
+ * of the memory of a <code>ZOrderIntMap</code>. <code>get(x,y)</code> finds the
+ * run with a binary search, and the runs of a row can be read directly with
+ * <code>getRunCount(y)</code>, <code>getRunEnd(y, run)</code> and
+ * <code>getRunValue(y, run)</code>:<br>
+ * <code>
+ * int x = 0;<br>
+ * for(int run = 0; run &lt; map.getRunCount(y); run++){<br>
+ * &nbsp;&nbsp;int end = map.getRunEnd(y, run), value = map.getRunValue(y, run);<br>
+ * &nbsp;&nbsp;// pixels x to end-1 have the value<br>
+ * &nbsp;&nbsp;x = end;<br>
+ * }
+ * </code>
+ */
+public final class RunLengthIntMap extends IntMap {
+	private final int width;
+	private final int height;
+	/** index of the first run of each row, plus the total number of runs */
+	private final int[] rowStart;
+	/** X coordinate after the last pixel of each run */
+	private final int[] runEnd;
+	private final int[] runValue;
+	
+	private RunLengthIntMap(int width, int height, int[] rowStart, int[] runEnd, int[] runValue){
+		this.width = width;
+		this.height = height;
+		this.rowStart = rowStart;
+		this.runEnd = runEnd;
+		this.runValue = runValue;
+	}
+	
+	/**
+	 * Encodes a copy of the given <code>IntMap</code>
+	 * @param source the raster to copy
+	 * @return A run-length encoded copy of <code>source</code>
+	 */
+	public static RunLengthIntMap fromIntMap(IntMap source){
+		final int w = source.getWidth(), h = source.getHeight();
+		final int[] rowStart = new int[h + 1];
+		int[] ends = new int[Math.max(16, h)];
+		int[] values = new int[ends.length];
+		int count = 0;
+		final int[] row = new int[w];
+		for(int y = 0; y < h; y++){
+			rowStart[y] = count;
+			source.getRegion(0, y, w, 1, row, 0, w);
+			for(int x = 0; x < w; ){
+				final int v = row[x];
+				int end = x + 1;
+				while(end < w && row[end] == v) end++;
+				if(count == ends.length){
+					ends = Arrays.copyOf(ends, count * 2);
+					values = Arrays.copyOf(values, count * 2);
+				}
+				ends[count] = end;
+				values[count] = v;
+				count++;
+				x = end;
+			}
+		}
+		rowStart[h] = count;
+		return new RunLengthIntMap(w, h, rowStart, Arrays.copyOf(ends, count), Arrays.copyOf(values, count));
+	}
+	
+	/** index of the run containing pixel (x,y) */
+	private int findRun(final int x, final int y){
+		if(x < 0 || y < 0 || x >= width || y >= height){
+			throw new ArrayIndexOutOfBoundsException(String.format("(%s, %s) is out of bounds of %sx%s IntMap", x, y, width, height));
+		}
+		// first run of the row which ends after x
+		int lo = rowStart[y], hi = rowStart[y + 1] - 1;
+		while(lo < hi){
+			final int mid = (lo + hi) >>> 1;
+			if(runEnd[mid] > x){
+				hi = mid;
+			} else {
+				lo = mid + 1;
+			}
+		}
+		return lo;
+	}
+	
+	/**
+	 * Get the value at the given (X,Y) coordinate.
+	 * @param x X coordinate
+	 * @param y Y coordinate
+	 * @return An integer value
+	 * @throws ArrayIndexOutOfBoundsException thrown if (X,Y) is outside the
+	 * bounds of this <code>IntMap</code>
+	 */
+	@Override
+	public int get(final int x, final int y)
+			throws ArrayIndexOutOfBoundsException {
+		return runValue[findRun(x, y)];
+	}
+	
+	/**
+	 * Gets the number of runs in a row
+	 * @param y Y coordinate of the row
+	 * @return number of runs (at least 1, unless the width is 0)
+	 * @throws ArrayIndexOutOfBoundsException thrown if the row is out of bounds
+	 */
+	public int getRunCount(final int y) throws ArrayIndexOutOfBoundsException {
+		return rowStart[y + 1] - rowStart[y];
+	}
+	
+	/**
+	 * Gets the X coordinate after the last pixel of a run, which is also the X
+	 * coordinate of the first pixel of the next run
+	 * @param y Y coordinate of the row
+	 * @param run index of the run in the row
+	 * @return X coordinate of the end of the run (exclusive)
+	 * @throws ArrayIndexOutOfBoundsException thrown if the row or run is out
+	 * of bounds
+	 */
+	public int getRunEnd(final int y, final int run) throws ArrayIndexOutOfBoundsException {
+		return runEnd[runIndex(y, run)];
+	}
+	
+	/**
+	 * Gets the value of all pixels of a run
+	 * @param y Y coordinate of the row
+	 * @param run index of the run in the row
+	 * @return the value of the run
+	 * @throws ArrayIndexOutOfBoundsException thrown if the row or run is out
+	 * of bounds
+	 */
+	public int getRunValue(final int y, final int run) throws ArrayIndexOutOfBoundsException {
+		return runValue[runIndex(y, run)];
+	}
+	
+	private int runIndex(final int y, final int run){
+		if(run < 0 || run >= getRunCount(y)){
+			throw new ArrayIndexOutOfBoundsException(String.format("Run %s is out of bounds of row %s (%s runs)", run, y, getRunCount(y)));
+		}
+		return rowStart[y] + run;
+	}
+	
+	/**
+	 * Gets the total number of runs, which determines the memory used by this
+	 * map (8 bytes per run, plus 4 bytes per row)
+	 * @return number of runs in all rows
+	 */
+	public int getTotalRunCount(){
+		return rowStart[height];
+	}
+	
+	/**
+	 * Copies the values of a rectangular area into an array, in row order, such
+	 * that the value at (x+i, y+j) is stored at
+	 * <code>dst[offset + j*stride + i]</code>. Each run is filled in at once.
+	 * @param x X coordinate of the first column of the area
+	 * @param y Y coordinate of the first row of the area
+	 * @param width width of the area
+	 * @param height height of the area
+	 * @param dst destination array
+	 * @param offset index in <code>dst</code> of the value at (x,y)
+	 * @param stride distance in <code>dst</code> between consecutive rows
+	 * @throws ArrayIndexOutOfBoundsException thrown if the area is not inside
+	 * the bounds of this <code>IntMap</code>, or <code>dst</code> is too small
+	 */
+	@Override
+	public void getRegion(final int x, final int y, final int width, final int height,
+			final int[] dst, final int offset, final int stride) throws ArrayIndexOutOfBoundsException {
+		checkRegion(x, y, width, height);
+		if(width == 0) return;
+		for(int j = 0; j < height; j++){
+			final int row = offset + j * stride - x;
+			int px = x;
+			for(int r = findRun(x, y + j); px < x + width; r++){
+				final int end = Math.min(runEnd[r], x + width);
+				Arrays.fill(dst, row + px, row + end, runValue[r]);
+				px = end;
+			}
+		}
+	}
+	
+	/**
+	 * Gets the width of this <code>IntMap</code>
+	 * @return The width of this <code>IntMap</code>
+	 */
+	@Override
+	public int getWidth() {
+		return this.width;
+	}
+	
+	/**
+	 * Gets the height of this <code>IntMap</code>
+	 * @return The height of this <code>IntMap</code>
+	 */
+	@Override
+	public int getHeight() {
+		return this.height;
+	}
+	
+	/**
+	 * Returns an immutable, thread-safe view of this map, without copying (this
+	 * map is already read-only)
+	 * @return An immutable view of this map
+	 */
+	@Override
+	public ImmutableIntMap freeze(){
+		return freezeInPlace();
+	}
+	
+	/**
+	 * Creates a deep-copy clone
+	 * @return A new <code>IntMap</code> with identical data to this one.
+	 */
+	@Override
+	public RunLengthIntMap clone() {
+		return new RunLengthIntMap(width, height, rowStart.clone(), runEnd.clone(), runValue.clone());
+	}
+}
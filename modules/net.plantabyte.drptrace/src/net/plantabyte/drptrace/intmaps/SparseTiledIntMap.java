@@ -0,0 +1,377 @@
+/*
+MIT License
+
+Copyright (c) 2021 Dr. Christopher C. Hall, aka DrPlantabyte
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package net.plantabyte.drptrace.intmaps;
+
+import net.plantabyte.drptrace.ImmutableIntMap;
+import net.plantabyte.drptrace.IntMap;
+
+import java.util.Arrays;
+
+/**
+ * Sparse <code>IntMap</code> implementation for rasters with large areas of a
+ * single value (eg a background color). The raster is divided into tiles of
+ * 16x16 pixels, and a tile in which every pixel has the same value is stored
+ * as just that value; only tiles with mixed values hold an array of 256 values.
+ * <p>
+ * The tile arrays are shared copy-on-write, so <code>clone()</code> only copies
+ * the table of tiles, and a tile array is duplicated the first time either map
+ * changes a pixel of that tile. Use <code>isTileUniform(tileX, tileY)</code> to
+ * skip over the interior of uniform tiles, and <code>compact()</code> to
+ * collapse tiles that have become uniform after being modified.
+ * </p>
+ */
+public final class SparseTiledIntMap extends IntMap {
+	/** width and height of a tile, in pixels */
+	public static final int TILE_SIZE = 16;
+	private static final int TILE_BITS = 4;
+	private static final int TILE_MASK = TILE_SIZE - 1;
+	private final int width;
+	private final int height;
+	private final int tilesPerRow;
+	/** values of the mixed tiles (in row-major order), or null for uniform tiles */
+	private final int[][] tiles;
+	/** value of each uniform tile */
+	private final int[] uniformValue;
+	/** whether the array of a mixed tile belongs to this map alone */
+	private final boolean[] owned;
+	
+	/**
+	 * Constructs a new instance with the given width and height. All values start
+	 * as zero.
+	 * @param width width of the raster
+	 * @param height height of the raster
+	 */
+	public SparseTiledIntMap(int width, int height){
+		this(width, height, 0);
+	}
+	
+	/**
+	 * Constructs a new instance with the given width and height, with every
+	 * value set to <code>background</code>.
+	 * @param width width of the raster
+	 * @param height height of the raster
+	 * @param background initial value of all pixels
+	 */
+	public SparseTiledIntMap(int width, int height, int background){
+		this.width = width;
+		this.height = height;
+		this.tilesPerRow = (width + TILE_MASK) >>> TILE_BITS;
+		final int tileCount = tilesPerRow * ((height + TILE_MASK) >>> TILE_BITS);
+		this.tiles = new int[tileCount][];
+		this.uniformValue = new int[tileCount];
+		this.owned = new boolean[tileCount];
+		if(background != 0) Arrays.fill(uniformValue, background);
+	}
+	
+	private SparseTiledIntMap(SparseTiledIntMap other){
+		this.width = other.width;
+		this.height = other.height;
+		this.tilesPerRow = other.tilesPerRow;
+		this.tiles = other.tiles.clone();
+		this.uniformValue = other.uniformValue.clone();
+		this.owned = new boolean[tiles.length];
+		if(!other.isFrozen()) Arrays.fill(other.owned, false);
+	}
+	
+	/**
+	 * Creates a sparse copy of the given <code>IntMap</code>, storing every
+	 * uniform tile as a single value
+	 * @param source the raster to copy
+	 * @return A new <code>SparseTiledIntMap</code> with the same values as
+	 * <code>source</code>
+	 */
+	public static SparseTiledIntMap fromIntMap(IntMap source){
+		final var out = new SparseTiledIntMap(source.getWidth(), source.getHeight());
+		final int[] buffer = new int[TILE_SIZE * TILE_SIZE];
+		for(int t = 0; t < out.tiles.length; t++){
+			final int x0 = (t % out.tilesPerRow) << TILE_BITS, y0 = (t / out.tilesPerRow) << TILE_BITS;
+			final int w = Math.min(TILE_SIZE, out.width - x0), h = Math.min(TILE_SIZE, out.height - y0);
+			source.getRegion(x0, y0, w, h, buffer, 0, TILE_SIZE);
+			final int first = buffer[0];
+			boolean uniform = true;
+			for(int j = 0; j < h && uniform; j++){
+				for(int i = 0; i < w; i++){
+					if(buffer[j * TILE_SIZE + i] != first){
+						uniform = false;
+						break;
+					}
+				}
+			}
+			if(uniform){
+				out.uniformValue[t] = first;
+			} else {
+				out.tiles[t] = buffer.clone();
+				out.owned[t] = true;
+			}
+		}
+		return out;
+	}
+	
+	private int tileIndex(final int x, final int y){
+		if(x < 0 || y < 0 || x >= width || y >= height){
+			throw new ArrayIndexOutOfBoundsException(String.format("(%s, %s) is out of bounds of %sx%s IntMap", x, y, width, height));
+		}
+		return tilesPerRow * (y >>> TILE_BITS) + (x >>> TILE_BITS);
+	}
+	
+	/**
+	 * Get the value at the given (X,Y) coordinate.
+	 * @param x X coordinate
+	 * @param y Y coordinate
+	 * @return An integer value
+	 * @throws ArrayIndexOutOfBoundsException thrown if (X,Y) is outside the
+	 * bounds of this <code>IntMap</code>
+	 */
+	@Override
+	public int get(final int x, final int y)
+			throws ArrayIndexOutOfBoundsException {
+		final int t = tileIndex(x, y);
+		final int[] tile = tiles[t];
+		if(tile == null) return uniformValue[t];
+		return tile[((y & TILE_MASK) << TILE_BITS) | (x & TILE_MASK)];
+	}
+	
+	/**
+	 * Sets the value at a given coordinate to the specified value. Setting a
+	 * pixel of a uniform tile to a different value allocates the tile.
+	 * @param x X coordinate
+	 * @param y Y coordinate
+	 * @param value value to store at (X,Y)
+	 * @return Returns the previous value that was overwritten.
+	 * @throws ArrayIndexOutOfBoundsException Thrown if coordinate (X,Y) is out
+	 * of bounds
+	 * @throws UnsupportedOperationException Thrown if this map has been frozen
+	 */
+	public int set(final int x, final int y, final int value)
+			throws ArrayIndexOutOfBoundsException {
+		checkNotFrozen();
+		final int t = tileIndex(x, y);
+		int[] tile = tiles[t];
+		if(tile == null){
+			final int old = uniformValue[t];
+			if(old == value) return old;
+			tile = new int[TILE_SIZE * TILE_SIZE];
+			Arrays.fill(tile, old);
+			tiles[t] = tile;
+			owned[t] = true;
+		} else if(!owned[t]){
+			tile = tile.clone(); // copy-on-write
+			tiles[t] = tile;
+			owned[t] = true;
+		}
+		final int i = ((y & TILE_MASK) << TILE_BITS) | (x & TILE_MASK);
+		final int old = tile[i];
+		tile[i] = value;
+		return old;
+	}
+	
+	/**
+	 * Sets every pixel of the raster to the same value, releasing all tiles
+	 * @param value the new value of all pixels
+	 * @throws UnsupportedOperationException Thrown if this map has been frozen
+	 */
+	public void fill(final int value){
+		checkNotFrozen();
+		Arrays.fill(tiles, null);
+		Arrays.fill(owned, false);
+		Arrays.fill(uniformValue, value);
+	}
+	
+	/**
+	 * Stores every tile whose pixels all have the same value as just that value
+	 * @return the number of tiles that were released
+	 * @throws UnsupportedOperationException Thrown if this map has been frozen
+	 */
+	public int compact(){
+		checkNotFrozen();
+		int released = 0;
+		for(int t = 0; t < tiles.length; t++){
+			final int[] tile = tiles[t];
+			if(tile == null) continue;
+			final int x0 = (t % tilesPerRow) << TILE_BITS, y0 = (t / tilesPerRow) << TILE_BITS;
+			final int w = Math.min(TILE_SIZE, width - x0), h = Math.min(TILE_SIZE, height - y0);
+			final int first = tile[0];
+			boolean uniform = true;
+			for(int j = 0; j < h && uniform; j++){
+				for(int i = 0; i < w; i++){
+					if(tile[(j << TILE_BITS) | i] != first){
+						uniform = false;
+						break;
+					}
+				}
+			}
+			if(uniform){
+				tiles[t] = null;
+				owned[t] = false;
+				uniformValue[t] = first;
+				released++;
+			}
+		}
+		return released;
+	}
+	
+	/**
+	 * Gets the number of tiles in each row of tiles
+	 * @return number of tile columns
+	 */
+	public int getTileColumns(){
+		return tilesPerRow;
+	}
+	
+	/**
+	 * Gets the number of rows of tiles
+	 * @return number of tile rows
+	 */
+	public int getTileRows(){
+		return tilesPerRow == 0 ? 0 : tiles.length / tilesPerRow;
+	}
+	
+	/**
+	 * Returns whether all pixels of a tile are stored as a single value. A tile
+	 * which is not uniform may still happen to have only one value (until
+	 * <code>compact()</code> is called).
+	 * @param tileX X coordinate of the tile (pixel X divided by
+	 *              <code>TILE_SIZE</code>)
+	 * @param tileY Y coordinate of the tile (pixel Y divided by
+	 *              <code>TILE_SIZE</code>)
+	 * @return <code>true</code> if every pixel of the tile has the value
+	 * <code>getTileValue(tileX, tileY)</code>
+	 * @throws ArrayIndexOutOfBoundsException Thrown if the tile is out of
+	 * bounds
+	 */
+	public boolean isTileUniform(final int tileX, final int tileY) throws ArrayIndexOutOfBoundsException {
+		return tiles[tile(tileX, tileY)] == null;
+	}
+	
+	/**
+	 * Gets the value of all pixels of a uniform tile
+	 * @param tileX X coordinate of the tile
+	 * @param tileY Y coordinate of the tile
+	 * @return the value of the tile
+	 * @throws IllegalStateException Thrown if the tile is not uniform
+	 * @throws ArrayIndexOutOfBoundsException Thrown if the tile is out of
+	 * bounds
+	 */
+	public int getTileValue(final int tileX, final int tileY) throws IllegalStateException, ArrayIndexOutOfBoundsException {
+		final int t = tile(tileX, tileY);
+		if(tiles[t] != null) throw new IllegalStateException(String.format("Tile (%s, %s) is not uniform", tileX, tileY));
+		return uniformValue[t];
+	}
+	
+	/**
+	 * Gets the number of tiles which hold an array of values
+	 * @return number of tiles which are not uniform
+	 */
+	public int getAllocatedTileCount(){
+		int count = 0;
+		for(var tile : tiles){
+			if(tile != null) count++;
+		}
+		return count;
+	}
+	
+	private int tile(final int tileX, final int tileY){
+		if(tileX < 0 || tileY < 0 || tileX >= tilesPerRow || tileY >= getTileRows()){
+			throw new ArrayIndexOutOfBoundsException(String.format("Tile (%s, %s) is out of bounds", tileX, tileY));
+		}
+		return tileY * tilesPerRow + tileX;
+	}
+	
+	/**
+	 * Copies the values of a rectangular area into an array, in row order, such
+	 * that the value at (x+i, y+j) is stored at
+	 * <code>dst[offset + j*stride + i]</code>. Uniform tiles are filled in
+	 * without reading any pixels.
+	 * @param x X coordinate of the first column of the area
+	 * @param y Y coordinate of the first row of the area
+	 * @param width width of the area
+	 * @param height height of the area
+	 * @param dst destination array
+	 * @param offset index in <code>dst</code> of the value at (x,y)
+	 * @param stride distance in <code>dst</code> between consecutive rows
+	 * @throws ArrayIndexOutOfBoundsException thrown if the area is not inside
+	 * the bounds of this <code>IntMap</code>, or <code>dst</code> is too small
+	 */
+	@Override
+	public void getRegion(final int x, final int y, final int width, final int height,
+			final int[] dst, final int offset, final int stride) throws ArrayIndexOutOfBoundsException {
+		checkRegion(x, y, width, height);
+		for(int j = 0; j < height; j++){
+			final int py = y + j;
+			final int row = offset + j * stride - x;
+			int px = x;
+			while(px < x + width){
+				final int t = tilesPerRow * (py >>> TILE_BITS) + (px >>> TILE_BITS);
+				final int end = Math.min(x + width, (px | TILE_MASK) + 1);
+				final int[] tile = tiles[t];
+				if(tile == null){
+					Arrays.fill(dst, row + px, row + end, uniformValue[t]);
+				} else {
+					System.arraycopy(tile, ((py & TILE_MASK) << TILE_BITS) | (px & TILE_MASK), dst, row + px, end - px);
+				}
+				px = end;
+			}
+		}
+	}
+	
+	/**
+	 * Gets the width of this <code>IntMap</code>
+	 * @return The width of this <code>IntMap</code>
+	 */
+	@Override
+	public int getWidth() {
+		return this.width;
+	}
+	
+	/**
+	 * Gets the height of this <code>IntMap</code>
+	 * @return The height of this <code>IntMap</code>
+	 */
+	@Override
+	public int getHeight() {
+		return this.height;
+	}
+	
+	/**
+	 * Makes this map read-only and returns an immutable, thread-safe view of it,
+	 * without copying (see <code>IntMap.freeze()</code>)
+	 * @return An immutable view of this map
+	 */
+	@Override
+	public ImmutableIntMap freeze(){
+		// clones of a frozen map never need to mark its tiles as shared
+		Arrays.fill(owned, false);
+		return freezeInPlace();
+	}
+	
+	/**
+	 * Creates a copy-on-write clone, which shares the tile arrays with this map
+	 * until either of them is modified.
+	 * @return A new <code>IntMap</code> with identical data to this one.
+	 */
+	@Override
+	public SparseTiledIntMap clone() {
+		return new SparseTiledIntMap(this);
+	}
+}
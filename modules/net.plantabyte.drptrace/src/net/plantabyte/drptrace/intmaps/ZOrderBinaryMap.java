@@ -23,6 +23,7 @@ SOFTWARE.
  */
 package net.plantabyte.drptrace.intmaps;
 
+import net.plantabyte.drptrace.ImmutableIntMap;
 import net.plantabyte.drptrace.IntMap;
 
 import java.util.Arrays;
@@ -52,17 +53,17 @@ public final class ZOrderBinaryMap extends IntMap {
 	}
 	
 	
+	private static final byte[] ZLUT = {
+			0b00000000,
+			0b00000001,
+			0b00000100,
+			0b00000101,
+			0b00010000,
+			0b00010001,
+			0b00010100,
+			0b00010101,
+	};
 	private static int zorder3bito6bit(final int x, final int y){
-		final byte[] ZLUT = {
-				0b00000000,
-				0b00000001,
-				0b00000100,
-				0b00000101,
-				0b00010000,
-				0b00010001,
-				0b00010100,
-				0b00010101,
-		};
 		final int xBits = ZLUT[x & 0x07];
 		final int yBits = ZLUT[y & 0x07] << 1;
 		return xBits | yBits;
@@ -82,9 +83,11 @@ public final class ZOrderBinaryMap extends IntMap {
 	 * @throws ArrayIndexOutOfBoundsException Thrown if coordinate (X,Y) is out
 	 * of bounds
 	 * @throws IllegalArgumentException Thrown if <code>value</code> is not valid
+	 * @throws UnsupportedOperationException Thrown if this map has been frozen
 	 */
 	public int set(int x, int y, byte value)
 			throws ArrayIndexOutOfBoundsException, IllegalArgumentException {
+		checkNotFrozen();
 		if((value & 0xFE) != 0) {
 			throw new IllegalArgumentException(String.format("%s can only accept values of 0 or 1", this.getClass().getName()));
 		}
@@ -102,18 +105,206 @@ public final class ZOrderBinaryMap extends IntMap {
 	 * Sets all pixels/cells to the specified value
 	 * @param value 0 or 1
 	 * @throws IllegalArgumentException Thrown if <code>value</code> is not valid
+	 * @throws UnsupportedOperationException Thrown if this map has been frozen
 	 */
 	public void fill(byte value) throws IllegalArgumentException{
+		checkNotFrozen();
 		if((value & 0xFE) != 0) {
 			throw new IllegalArgumentException(String.format("%s can only accept values of 0 or 1", this.getClass().getName()));
 		}
 		if(value == 0) {
-			Arrays.fill(data, (byte)0);
+			Arrays.fill(data, 0L);
 		} else {
-			Arrays.fill(data, (byte)0xFF);
+			Arrays.fill(data, -1L);
+			clearPadding();
 		}
 	}
 	
+	/** bits of an 8x8 chunk in column x (index x) or row y (index 8+y) */
+	private static final long[] LINES = new long[16];
+	static {
+		for(int y = 0; y < 8; y++){
+			for(int x = 0; x < 8; x++){
+				final long bit = 1L << zorder3bito6bit(x, y);
+				LINES[x] |= bit;
+				LINES[8 + y] |= bit;
+			}
+		}
+	}
+	
+	/** bits of an 8x8 chunk with x0 &lt;= x &lt; x1 and y0 &lt;= y &lt; y1 (local coordinates) */
+	private static long chunkMask(final int x0, final int x1, final int y0, final int y1){
+		long columns = 0, rows = 0;
+		for(int x = x0; x < x1; x++) columns |= LINES[x];
+		for(int y = y0; y < y1; y++) rows |= LINES[8 + y];
+		return columns & rows;
+	}
+	
+	/**
+	 * Clears the bits of the chunks on the right and top edges which lie
+	 * outside of the raster, so that word-level operations can treat every
+	 * stored bit as a pixel
+	 */
+	private void clearPadding(){
+		final int rows = data.length / chunksPerRow;
+		for(int cy = 0; cy < rows; cy++){
+			for(int cx = 0; cx < chunksPerRow; cx++){
+				final int w = Math.min(8, Math.max(0, width - cx * 8));
+				final int h = Math.min(8, Math.max(0, height - cy * 8));
+				if(w < 8 || h < 8) data[cy * chunksPerRow + cx] &= chunkMask(0, w, 0, h);
+			}
+		}
+	}
+	
+	private void checkSameSize(final ZOrderBinaryMap other){
+		if(other.width != width || other.height != height){
+			throw new IllegalArgumentException(String.format("Cannot combine a %sx%s %s with a %sx%s one",
+					width, height, getClass().getSimpleName(), other.width, other.height));
+		}
+	}
+	
+	/**
+	 * Sets each pixel to the logical AND of itself and the same pixel of
+	 * another map, 64 pixels at a time
+	 * @param other a map of the same size
+	 * @throws IllegalArgumentException Thrown if the sizes differ
+	 * @throws UnsupportedOperationException Thrown if this map has been frozen
+	 */
+	public void and(final ZOrderBinaryMap other) throws IllegalArgumentException {
+		checkNotFrozen();
+		checkSameSize(other);
+		for(int i = 0; i < data.length; i++) data[i] &= other.data[i];
+	}
+	
+	/**
+	 * Sets each pixel to the logical OR of itself and the same pixel of another
+	 * map, 64 pixels at a time
+	 * @param other a map of the same size
+	 * @throws IllegalArgumentException Thrown if the sizes differ
+	 * @throws UnsupportedOperationException Thrown if this map has been frozen
+	 */
+	public void or(final ZOrderBinaryMap other) throws IllegalArgumentException {
+		checkNotFrozen();
+		checkSameSize(other);
+		for(int i = 0; i < data.length; i++) data[i] |= other.data[i];
+	}
+	
+	/**
+	 * Sets each pixel to the logical XOR of itself and the same pixel of
+	 * another map, 64 pixels at a time
+	 * @param other a map of the same size
+	 * @throws IllegalArgumentException Thrown if the sizes differ
+	 * @throws UnsupportedOperationException Thrown if this map has been frozen
+	 */
+	public void xor(final ZOrderBinaryMap other) throws IllegalArgumentException {
+		checkNotFrozen();
+		checkSameSize(other);
+		for(int i = 0; i < data.length; i++) data[i] ^= other.data[i];
+	}
+	
+	/**
+	 * Clears each pixel which is set in another map (this AND NOT other), 64
+	 * pixels at a time
+	 * @param other a map of the same size
+	 * @throws IllegalArgumentException Thrown if the sizes differ
+	 * @throws UnsupportedOperationException Thrown if this map has been frozen
+	 */
+	public void andNot(final ZOrderBinaryMap other) throws IllegalArgumentException {
+		checkNotFrozen();
+		checkSameSize(other);
+		for(int i = 0; i < data.length; i++) data[i] &= ~other.data[i];
+	}
+	
+	/**
+	 * Counts the pixels with value 1
+	 * @return number of pixels that are set
+	 */
+	public long countSet(){
+		long count = 0;
+		for(final long word : data) count += Long.bitCount(word);
+		return count;
+	}
+	
+	/**
+	 * Returns whether any pixel in a rectangular area is set, testing up to 64
+	 * pixels at a time
+	 * @param x X coordinate of the first column of the area
+	 * @param y Y coordinate of the first row of the area
+	 * @param width width of the area
+	 * @param height height of the area
+	 * @return <code>true</code> if at least one pixel of the area has value 1
+	 * @throws ArrayIndexOutOfBoundsException thrown if the area is not inside
+	 * the bounds of this <code>IntMap</code>
+	 */
+	public boolean anySet(final int x, final int y, final int width, final int height)
+			throws ArrayIndexOutOfBoundsException {
+		checkRegion(x, y, width, height);
+		if(width == 0 || height == 0) return false;
+		final int x1 = x + width, y1 = y + height;
+		for(int cy = y >>> 3; cy <= (y1 - 1) >>> 3; cy++){
+			final int ly0 = Math.max(y - cy * 8, 0), ly1 = Math.min(y1 - cy * 8, 8);
+			for(int cx = x >>> 3; cx <= (x1 - 1) >>> 3; cx++){
+				final int lx0 = Math.max(x - cx * 8, 0), lx1 = Math.min(x1 - cx * 8, 8);
+				final long word = data[cy * chunksPerRow + cx];
+				if(word != 0 && (word & chunkMask(lx0, lx1, ly0, ly1)) != 0) return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Finds the first pixel with value 1 at or after (x,y) in scan order (from
+	 * left to right, then from row to row of increasing Y), 8 pixels at a time
+	 * @param x X coordinate to start from
+	 * @param y Y coordinate to start from
+	 * @return the scan index (<code>y*getWidth()+x</code>) of the pixel found,
+	 * or -1 if there is none
+	 * @throws ArrayIndexOutOfBoundsException thrown if (X,Y) is outside the
+	 * bounds of this <code>IntMap</code>
+	 */
+	public long nextSetBit(final int x, final int y) throws ArrayIndexOutOfBoundsException {
+		return nextBit(x, y, false);
+	}
+	
+	/**
+	 * Finds the first pixel with value 0 at or after (x,y) in scan order (from
+	 * left to right, then from row to row of increasing Y), 8 pixels at a time
+	 * @param x X coordinate to start from
+	 * @param y Y coordinate to start from
+	 * @return the scan index (<code>y*getWidth()+x</code>) of the pixel found,
+	 * or -1 if there is none
+	 * @throws ArrayIndexOutOfBoundsException thrown if (X,Y) is outside the
+	 * bounds of this <code>IntMap</code>
+	 */
+	public long nextClearBit(final int x, final int y) throws ArrayIndexOutOfBoundsException {
+		return nextBit(x, y, true);
+	}
+	
+	private long nextBit(final int x, final int y, final boolean clear){
+		if(!isInRange(x, y)){
+			throw new ArrayIndexOutOfBoundsException(String.format("(%s, %s) is out of bounds of %sx%s IntMap", x, y, width, height));
+		}
+		final long lastColumns = chunkMask(0, width - ((width - 1) & ~7), 0, 8);
+		int startX = x;
+		for(int py = y; py < height; py++){
+			final long row = LINES[8 + (py & 7)];
+			final int rowStart = chunksPerRow * (py >>> 3);
+			for(int cx = startX >>> 3; cx <= (width - 1) >>> 3; cx++){
+				long bits = (clear ? ~data[rowStart + cx] : data[rowStart + cx]) & row;
+				if(cx == (width - 1) >>> 3) bits &= lastColumns;
+				if(cx == startX >>> 3) bits &= chunkMask(startX & 7, 8, 0, 8);
+				if(bits != 0){
+					// for a fixed row, the Z-order index increases with X
+					final int z = Long.numberOfTrailingZeros(bits);
+					final int lx = (z & 1) | ((z >>> 1) & 2) | ((z >>> 2) & 4);
+					return (long) py * width + cx * 8 + lx;
+				}
+			}
+			startX = 0;
+		}
+		return -1;
+	}
+	
 	/**
 	 * Get the pixel color/cell value at the given (X,Y) coordinate.
 	 * @param x X coordinate
@@ -132,6 +323,36 @@ public final class ZOrderBinaryMap extends IntMap {
 		return (int)(val >>> shift) & 0x01;
 	}
 	
+	/**
+	 * Copies the values of a rectangular area into an array, in row order, such
+	 * that the value at (x+i, y+j) is stored at
+	 * <code>dst[offset + j*stride + i]</code>.
+	 * @param x X coordinate of the first column of the area
+	 * @param y Y coordinate of the first row of the area
+	 * @param width width of the area
+	 * @param height height of the area
+	 * @param dst destination array
+	 * @param offset index in <code>dst</code> of the value at (x,y)
+	 * @param stride distance in <code>dst</code> between consecutive rows
+	 * @throws ArrayIndexOutOfBoundsException thrown if the area is not inside
+	 * the bounds of this <code>IntMap</code>, or <code>dst</code> is too small
+	 */
+	@Override
+	public void getRegion(final int x, final int y, final int width, final int height,
+			final int[] dst, final int offset, final int stride) throws ArrayIndexOutOfBoundsException {
+		checkRegion(x, y, width, height);
+		for(int j = 0; j < height; j++){
+			final int py = y + j;
+			final int rowStart = chunksPerRow * (py >>> 3);
+			final int yBits = ZLUT[py & 0x07] << 1;
+			final int row = offset + j * stride;
+			for(int i = 0; i < width; i++){
+				final int px = x + i;
+				dst[row + i] = (int)(data[rowStart + (px >>> 3)] >>> (ZLUT[px & 0x07] | yBits)) & 0x01;
+			}
+		}
+	}
+	
 	/**
 	 * Gets the width of this <code>IntMap</code>
 	 * @return The width of this <code>IntMap</code>
@@ -149,6 +370,16 @@ public final class ZOrderBinaryMap extends IntMap {
 	public int getHeight() {
 		return height;
 	}
+	/**
+	 * Makes this map read-only and returns an immutable, thread-safe view of it,
+	 * without copying (see <code>IntMap.freeze()</code>)
+	 * @return An immutable view of this map
+	 */
+	@Override
+	public ImmutableIntMap freeze(){
+		return freezeInPlace();
+	}
+	
 	/**
 	 * Creates a deep-copy clone
 	 * @return A new <code>IntMap</code> with identical data to this one.
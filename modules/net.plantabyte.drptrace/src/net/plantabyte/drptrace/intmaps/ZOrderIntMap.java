@@ -23,6 +23,7 @@ SOFTWARE.
  */
 package net.plantabyte.drptrace.intmaps;
 
+import net.plantabyte.drptrace.ImmutableIntMap;
 import net.plantabyte.drptrace.IntMap;
 
 /**
@@ -61,32 +62,30 @@ public final class ZOrderIntMap extends IntMap {
 		final int w=rowColMatrix[0].length, h=rowColMatrix.length;
 		var out = new ZOrderIntMap(w, h);
 		for(int y = 0; y < h; y++){
-			for(int x = 0; x < w; x++){
-				out.set(x, y, rowColMatrix[y][x]);
-			}
+			out.setRegion(0, y, w, 1, rowColMatrix[y], 0, w);
 		}
 		return out;
 	}
 	
+	private static final byte[] ZLUT = {
+			0b00000000,
+			0b00000001,
+			0b00000100,
+			0b00000101,
+			0b00010000,
+			0b00010001,
+			0b00010100,
+			0b00010101,
+			0b01000000,
+			0b01000001,
+			0b01000100,
+			0b01000101,
+			0b01010000,
+			0b01010001,
+			0b01010100,
+			0b01010101
+	};
 	private static int zorder4bito8bit(final int x, final int y){
-		final byte[] ZLUT = {
-				0b00000000,
-				0b00000001,
-				0b00000100,
-				0b00000101,
-				0b00010000,
-				0b00010001,
-				0b00010100,
-				0b00010101,
-				0b01000000,
-				0b01000001,
-				0b01000100,
-				0b01000101,
-				0b01010000,
-				0b01010001,
-				0b01010100,
-				0b01010101
-		};
 		final int xBits = ZLUT[x & 0x0F];
 		final int yBits = ZLUT[y & 0x0F] << 1;
 		return xBits | yBits;
@@ -120,15 +119,78 @@ public final class ZOrderIntMap extends IntMap {
 	 * @return Returns the previous value that was overwritten.
 	 * @throws ArrayIndexOutOfBoundsException Thrown if coordinate (X,Y) is out
 	 * of bounds
+	 * @throws UnsupportedOperationException Thrown if this map has been frozen
 	 */
 	public int set(final int x, final int y, final int value)
 			throws ArrayIndexOutOfBoundsException {
+		checkNotFrozen();
 		final int i = index(x, y);
 		int t = data[i];
 		data[i] = value;
 		return t;
 	}
 	
+	/**
+	 * Copies the values of a rectangular area into an array, in row order, such
+	 * that the value at (x+i, y+j) is stored at
+	 * <code>dst[offset + j*stride + i]</code>.
+	 * @param x X coordinate of the first column of the area
+	 * @param y Y coordinate of the first row of the area
+	 * @param width width of the area
+	 * @param height height of the area
+	 * @param dst destination array
+	 * @param offset index in <code>dst</code> of the value at (x,y)
+	 * @param stride distance in <code>dst</code> between consecutive rows
+	 * @throws ArrayIndexOutOfBoundsException thrown if the area is not inside
+	 * the bounds of this <code>IntMap</code>, or <code>dst</code> is too small
+	 */
+	@Override
+	public void getRegion(final int x, final int y, final int width, final int height,
+			final int[] dst, final int offset, final int stride) throws ArrayIndexOutOfBoundsException {
+		checkRegion(x, y, width, height);
+		for(int j = 0; j < height; j++){
+			final int rowBase = rowBase(y + j);
+			final int row = offset + j * stride;
+			for(int i = 0; i < width; i++){
+				final int px = x + i;
+				dst[row + i] = data[(rowBase + ((px >>> 4) << 8)) | ZLUT[px & 0x0F]];
+			}
+		}
+	}
+	
+	/**
+	 * Sets the values of a rectangular area from an array, in row order, such
+	 * that (x+i, y+j) is set to <code>src[offset + j*stride + i]</code>.
+	 * @param x X coordinate of the first column of the area
+	 * @param y Y coordinate of the first row of the area
+	 * @param width width of the area
+	 * @param height height of the area
+	 * @param src source array
+	 * @param offset index in <code>src</code> of the value for (x,y)
+	 * @param stride distance in <code>src</code> between consecutive rows
+	 * @throws ArrayIndexOutOfBoundsException thrown if the area is not inside
+	 * the bounds of this <code>IntMap</code>, or <code>src</code> is too small
+	 * @throws UnsupportedOperationException Thrown if this map has been frozen
+	 */
+	public void setRegion(final int x, final int y, final int width, final int height,
+			final int[] src, final int offset, final int stride) throws ArrayIndexOutOfBoundsException {
+		checkNotFrozen();
+		checkRegion(x, y, width, height);
+		for(int j = 0; j < height; j++){
+			final int rowBase = rowBase(y + j);
+			final int row = offset + j * stride;
+			for(int i = 0; i < width; i++){
+				final int px = x + i;
+				data[(rowBase + ((px >>> 4) << 8)) | ZLUT[px & 0x0F]] = src[row + i];
+			}
+		}
+	}
+	
+	/** index of the first chunk of a row, with the Y bits of the Z-order index */
+	private int rowBase(final int y){
+		return ((chunksPerRow * (y >>> 4)) << 8) | (ZLUT[y & 0x0F] << 1);
+	}
+	
 	/**
 	 * Gets the width of this <code>IntMap</code>
 	 * @return The width of this <code>IntMap</code>
@@ -147,6 +209,16 @@ public final class ZOrderIntMap extends IntMap {
 		return this.height;
 	}
 	
+	/**
+	 * Makes this map read-only and returns an immutable, thread-safe view of it,
+	 * without copying (see <code>IntMap.freeze()</code>)
+	 * @return An immutable view of this map
+	 */
+	@Override
+	public ImmutableIntMap freeze(){
+		return freezeInPlace();
+	}
+	
 	/**
 	 * Creates a deep-copy clone
 	 * @return A new <code>IntMap</code> with identical data to this one.
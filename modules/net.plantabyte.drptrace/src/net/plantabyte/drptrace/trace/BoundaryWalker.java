@@ -0,0 +1,195 @@
+/*
+MIT License
+
+Copyright (c) 2021 Dr. Christopher C. Hall, aka DrPlantabyte
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package net.plantabyte.drptrace.trace;
+
+import net.plantabyte.drptrace.ImmutableIntMap;
+import net.plantabyte.drptrace.IntMap;
+import net.plantabyte.drptrace.geometry.ChainCode;
+import net.plantabyte.drptrace.geometry.Vec2;
+import net.plantabyte.drptrace.intmaps.BorderedIntMap;
+
+import static net.plantabyte.drptrace.geometry.ChainCode.*;
+
+/**
+ * The <code>BoundaryWalker</code> follows the boundary of a patch of pixels
+ * from one grid intersection (vertex) to the next, keeping the patch on its
+ * left, and records the direction of each step. Vertex (X,Y) is the corner
+ * shared by the pixels (X-1,Y-1), (X,Y-1), (X-1,Y) and (X,Y), so that pixel
+ * (X,Y) covers the square from (X,Y) to (X+1,Y+1). The step directions are
+ * those of <code>ChainCode</code>.
+ * <p>
+ * This is the only edge follower: <code>TraceMachine</code> walks outer
+ * contours with it, and since the walk can start on any boundary edge, it
+ * also walks the boundaries of holes for <code>HoleIndex</code> and the
+ * topology-aware tracing.
+ * </p>
+ * If the map is a <code>BorderedIntMap</code> (or a frozen one), the pixels
+ * around each vertex are read by index without any range checks.
+ */
+public final class BoundaryWalker {
+	/**
+	 * the turn (added to the direction) at each vertex, indexed by whether the
+	 * two pixels ahead are part of the patch: far-left (2) and far-right (1).
+	 * The pixel behind on the left is always part of the patch and the one
+	 * behind on the right never is, so every vertex is on the boundary.
+	 * <pre>
+	 *  ..  .#  #.  ##    (far-left, far-right)
+	 *  #.  #.  #.  #.    (near-left, near-right)
+	 *  ^^  ^^  ^^  ^^
+	 *  L   L   S   R
+	 * </pre>
+	 */
+	private static final int[] TURNS = {1, 1, 0, 3};
+	
+	private BoundaryWalker(){}
+	
+	/**
+	 * Walks once around a boundary of the patch of <code>value</code> pixels,
+	 * keeping the patch on the left. The walk starts as if it had just arrived at
+	 * vertex (vx,vy) by stepping in direction <code>dir</code>, which must be a
+	 * boundary edge of the patch (with the patch on its left), and it ends when
+	 * it has taken that step again. For example, the outer boundary of the patch
+	 * whose first pixel in scan order is (X,Y) is walked with
+	 * <code>walk(map, value, X+1, Y, RIGHT)</code>.
+	 * @param map raster holding the patch
+	 * @param value value of the pixels of the patch
+	 * @param vx X coordinate of the starting vertex
+	 * @param vy Y coordinate of the starting vertex
+	 * @param dir direction of the step arriving at the starting vertex
+	 * @return the direction of every step, in order (the last step is the one
+	 * arriving at the starting vertex)
+	 */
+	public static byte[] walk(final IntMap map, final int value, final int vx, final int vy, final int dir){
+		return walkChain(map, value, vx, vy, dir).toSteps();
+	}
+	
+	/**
+	 * Same as <code>walk(...)</code>, but returns the steps as a compact
+	 * <code>ChainCode</code> starting at vertex (vx,vy)
+	 * @param map raster holding the patch
+	 * @param value value of the pixels of the patch
+	 * @param vx X coordinate of the starting vertex
+	 * @param vy Y coordinate of the starting vertex
+	 * @param dir direction of the step arriving at the starting vertex
+	 * @return the steps of the walk (the last step is the one arriving at the
+	 * starting vertex)
+	 */
+	public static ChainCode walkChain(final IntMap map, final int value, final int vx, final int vy, final int dir){
+		// look through a frozen view, so that a frozen BorderedIntMap is still read by index
+		if(map instanceof ImmutableIntMap) return walkChain(((ImmutableIntMap) map).getSource(), value, vx, vy, dir);
+		if(map instanceof BorderedIntMap) return walkChain((BorderedIntMap) map, value, vx, vy, dir);
+		final var chain = new ChainCode.Builder(vx, vy);
+		int x = vx, y = vy, d = dir;
+		do{
+			// the two pixels ahead of the vertex (the two behind are the patch on
+			// the left and a different value on the right)
+			final boolean farLeft, farRight;
+			switch(d){
+				case UP:
+					farLeft = is(map, value, x - 1, y);
+					farRight = is(map, value, x, y);
+					break;
+				case LEFT:
+					farLeft = is(map, value, x - 1, y - 1);
+					farRight = is(map, value, x - 1, y);
+					break;
+				case DOWN:
+					farLeft = is(map, value, x, y - 1);
+					farRight = is(map, value, x - 1, y - 1);
+					break;
+				default:
+					farLeft = is(map, value, x, y);
+					farRight = is(map, value, x, y - 1);
+					break;
+			}
+			// near-left is always part of the patch and near-right never is
+			d = (d + TURNS[(farLeft ? 0b10 : 0) | (farRight ? 0b01 : 0)]) & 3;
+			chain.append(d);
+			x += dx(d);
+			y += dy(d);
+		} while(x != vx || y != vy || d != dir);
+		return chain.build();
+	}
+	
+	private static ChainCode walkChain(final BorderedIntMap map, final int value, final int vx, final int vy, final int dir){
+		final var chain = new ChainCode.Builder(vx, vy);
+		final int s = map.getStride();
+		// change in pixel index for each step direction
+		final int[] step = {s, -1, -s, 1};
+		// index of the pixel up and to the right of the vertex; the others are
+		// at p - 1 (up-left), p - s (down-right) and p - s - 1 (down-left), and
+		// pixels outside of the raster hold the sentinel, which is never value
+		int p = map.indexOf(vx, vy);
+		final int start = p;
+		int d = dir;
+		do{
+			final boolean farLeft, farRight;
+			switch(d){
+				case UP:
+					farLeft = map.getAt(p - 1) == value;
+					farRight = map.getAt(p) == value;
+					break;
+				case LEFT:
+					farLeft = map.getAt(p - s - 1) == value;
+					farRight = map.getAt(p - 1) == value;
+					break;
+				case DOWN:
+					farLeft = map.getAt(p - s) == value;
+					farRight = map.getAt(p - s - 1) == value;
+					break;
+				default:
+					farLeft = map.getAt(p) == value;
+					farRight = map.getAt(p - s) == value;
+					break;
+			}
+			d = (d + TURNS[(farLeft ? 0b10 : 0) | (farRight ? 0b01 : 0)]) & 3;
+			chain.append(d);
+			p += step[d];
+		} while(p != start || d != dir);
+		return chain.build();
+	}
+	
+	/**
+	 * Gets the midpoint of the pixel edge crossed by each step of a walk
+	 * @param vx X coordinate of the starting vertex
+	 * @param vy Y coordinate of the starting vertex
+	 * @param steps step directions, as returned by <code>walk(...)</code>
+	 * @return one point per step
+	 */
+	public static Vec2[] midpoints(final int vx, final int vy, final byte[] steps){
+		final var points = new Vec2[steps.length];
+		int x = vx, y = vy;
+		for(int i = 0; i < steps.length; i++){
+			final int d = steps[i];
+			points[i] = new Vec2(x + 0.5 * dx(d), y + 0.5 * dy(d));
+			x += dx(d);
+			y += dy(d);
+		}
+		return points;
+	}
+	
+	private static boolean is(final IntMap map, final int value, final int x, final int y){
+		return map.isInRange(x, y) && map.get(x, y) == value;
+	}
+}
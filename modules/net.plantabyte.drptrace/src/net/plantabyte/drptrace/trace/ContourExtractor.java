@@ -0,0 +1,629 @@
+/*
+MIT License
+
+Copyright (c) 2021 Dr. Christopher C. Hall, aka DrPlantabyte
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package net.plantabyte.drptrace.trace;
+
+import net.plantabyte.drptrace.IntMap;
+import net.plantabyte.drptrace.geometry.ChainCode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import static net.plantabyte.drptrace.geometry.ChainCode.*;
+
+/**
+ * The <code>ContourExtractor</code> finds the outer contour of every patch of
+ * a raster in a single sweep, instead of walking around each patch on its
+ * own. The raster is read once, row by row, and at every grid intersection
+ * (vertex) the 2x2 configuration of the pixels around it decides which
+ * boundary edge continues which (with the same turns as
+ * <code>BoundaryWalker</code>). Each pair of edges is linked into a growing
+ * fragment of contour as soon as it is seen, and a contour is complete when
+ * its fragment closes on itself.
+ * <p>
+ * The sweep is split into bands of rows which are swept independently on
+ * an <code>Executor</code> (see <code>scan(IntMap, Executor)</code>), which
+ * is what <code>Tracer</code> does with an <code>ImmutableIntMap</code>; the
+ * fragments left open at the edges of the bands are then joined through the
+ * pixel edges crossing between them. On a single thread, labeling the raster
+ * and walking around each patch is faster. The contours are exactly those returned by
+ * <code>TraceMachine.followEdgeChain(...)</code> for the first pixel of each
+ * patch, and are listed in the scan order of those pixels (the order of the
+ * regions of <code>RegionMap</code>). The inner contours (holes) are linked as
+ * well, but are not kept.
+ * </p>
+ */
+public final class ContourExtractor {
+	/** rows of vertices per band when sweeping in parallel */
+	private static final int BAND_HEIGHT = 64;
+	/**
+	 * the turn (added to the direction) at each vertex, indexed by whether the
+	 * two pixels ahead are part of the patch: far-left (2) and far-right (1),
+	 * as in <code>BoundaryWalker</code>
+	 */
+	private static final int[] TURNS = {1, 1, 0, 3};
+	/**
+	 * the links made at a vertex, indexed by which of the four pixels around
+	 * it are inside the raster (bits 6-9) and which pairs of them are equal
+	 * (bits 0-5, see <code>pairs(...)</code>): the number of links in bits 0-2,
+	 * then the arriving and leaving direction of each link in 2 bits apiece
+	 */
+	private static final int[] LINKS = new int[1 << 10];
+	static {
+		// the pixels around a vertex, counter-clockwise from the upper right
+		// (NE, NW, SW, SE); arriving in direction d, the pixel behind on the
+		// left is quadrant d+2, behind on the right d+3, ahead on the left d+1
+		// and ahead on the right d
+		final int[] q = new int[4];
+		for(int inside = 0; inside < 16; inside++){
+			for(int values = 0; values < 256; values++){
+				for(int i = 0; i < 4; i++) q[i] = (inside >> i & 1) == 0 ? -1 - i : values >> (2 * i) & 3;
+				int links = 0, n = 0;
+				for(int d = 0; d < 4; d++){
+					final int bl = (d + 2) & 3, br = (d + 3) & 3, fl = (d + 1) & 3;
+					if(q[bl] < 0 || q[br] == q[bl]) continue;
+					final boolean farLeft = q[fl] == q[bl], farRight = q[d] == q[bl];
+					final int out = (d + TURNS[(farLeft ? 0b10 : 0) | (farRight ? 0b01 : 0)]) & 3;
+					links |= (d | out << 2) << (3 + 4 * n++);
+				}
+				LINKS[inside << 6 | pairs(q[0], q[1], q[2], q[3])] = links | n;
+			}
+		}
+	}
+
+	/** the pairs (as in <code>pairs(...)</code>) of pixels that are both inside the raster */
+	private static int insidePairs(final int inside){
+		final int ne = inside & 1, nw = inside >> 1 & 1, sw = inside >> 2 & 1, se = inside >> 3 & 1;
+		return (ne & nw) | (nw & sw) << 1 | (sw & se) << 2 | (se & ne) << 3 | (ne & sw) << 4 | (nw & se) << 5;
+	}
+
+	/** which of the pixels around a vertex are equal: NE=NW, NW=SW, SW=SE, SE=NE, NE=SW and NW=SE */
+	private static int pairs(final int ne, final int nw, final int sw, final int se){
+		return (ne == nw ? 0b1 : 0) | (nw == sw ? 0b10 : 0) | (sw == se ? 0b100 : 0)
+				| (se == ne ? 0b1000 : 0) | (ne == sw ? 0b10000 : 0) | (nw == se ? 0b100000 : 0);
+	}
+
+	private final int width;
+	private int count;
+	private int[] seeds; // seed pixel index (y * width + x), in scan order
+	private int[] values;
+	private ChainCode[] contours;
+
+	private ContourExtractor(final int width){
+		this.width = width;
+	}
+
+	/**
+	 * Sweeps a raster in bands of rows on the given <code>Executor</code>, and
+	 * joins the bands on the calling thread
+	 * @param map the raster (which must be safe to read from several threads)
+	 * @param executor the executor which runs the sweeps of the bands
+	 * @return the outer contours of all patches of <code>map</code>
+	 */
+	public static ContourExtractor scan(final IntMap map, final Executor executor){
+		final int rows = map.getHeight() + 1;
+		final var bands = new ArrayList<Band>();
+		final var tasks = new ArrayList<CompletableFuture<Void>>();
+		for(int y = 0; y < rows; y += BAND_HEIGHT){
+			final var band = new Band(map, y, Math.min(rows, y + BAND_HEIGHT));
+			bands.add(band);
+			tasks.add(CompletableFuture.runAsync(band::sweep, executor));
+		}
+		try {
+			CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0])).join();
+		} catch(CompletionException e){
+			if(e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+			if(e.getCause() instanceof Error) throw (Error) e.getCause();
+			throw e;
+		}
+		return collect(map, bands);
+	}
+
+	/** joins the fragments left open by the bands and sorts the contours by seed */
+	private static ContourExtractor collect(final IntMap map, final List<Band> bands){
+		final int w = map.getWidth();
+		final var closed = new ArrayList<Contour>();
+		final var open = new ArrayList<Fragment>();
+		for(var band : bands){
+			closed.addAll(band.closed);
+			open.addAll(band.open);
+		}
+		// every pixel edge crossing between two bands ends one fragment and starts another
+		final var startingAt = new Fragment[2 * (w + 1) * bands.size()];
+		for(var f : open){
+			startingAt[f.headKey] = f;
+		}
+		final var visited = new boolean[startingAt.length];
+		for(var first : open){
+			if(visited[first.headKey]) continue;
+			final var joined = new Fragment(first.startX, first.startY);
+			var f = first;
+			do{
+				visited[f.headKey] = true;
+				joined.appendAll(f);
+				f = startingAt[f.tailKey];
+			} while(f != first);
+			final var contour = Contour.of(joined, w);
+			if(contour != null) closed.add(contour);
+		}
+		// seed indices are unique, so sorting (seed, index) pairs sorts the
+		// contours; they are first bucketed by the row of the seed
+		final int h = map.getHeight();
+		final int[] rowStart = new int[h + 1];
+		for(var contour : closed){
+			rowStart[contour.seed / w + 1]++;
+		}
+		for(int y = 0; y < h; y++){
+			rowStart[y + 1] += rowStart[y];
+		}
+		final int[] next = Arrays.copyOf(rowStart, h);
+		final long[] order = new long[closed.size()];
+		for(int i = 0; i < order.length; i++){
+			final int seed = closed.get(i).seed;
+			order[next[seed / w]++] = ((long) seed << 32) | i;
+		}
+		for(int y = 0; y < h; y++){
+			Arrays.sort(order, rowStart[y], rowStart[y + 1]);
+		}
+		final var out = new ContourExtractor(w);
+		out.count = order.length;
+		out.seeds = new int[order.length];
+		out.values = new int[order.length];
+		out.contours = new ChainCode[order.length];
+		for(int i = 0; i < order.length; i++){
+			final var contour = closed.get((int) order[i]);
+			out.seeds[i] = contour.seed;
+			out.values[i] = map.get(contour.seed % w, contour.seed / w);
+			out.contours[i] = contour.chain;
+		}
+		return out;
+	}
+
+	/**
+	 * Gets the number of contours, which is the number of patches
+	 * @return the number of contours
+	 */
+	public int getContourCount(){
+		return count;
+	}
+
+	/**
+	 * Gets the X coordinate of the first pixel (in scan order) of the patch
+	 * inside a contour
+	 * @param contour index of the contour
+	 * @return X coordinate of the seed pixel
+	 */
+	public int getSeedX(final int contour){
+		return seeds[contour] % width;
+	}
+
+	/**
+	 * Gets the Y coordinate of the first pixel (in scan order) of the patch
+	 * inside a contour
+	 * @param contour index of the contour
+	 * @return Y coordinate of the seed pixel
+	 */
+	public int getSeedY(final int contour){
+		return seeds[contour] / width;
+	}
+
+	/**
+	 * Gets the value of the pixels of the patch inside a contour
+	 * @param contour index of the contour
+	 * @return the value of the patch
+	 */
+	public int getValue(final int contour){
+		return values[contour];
+	}
+
+	/**
+	 * Gets a contour, which is the same as
+	 * <code>TraceMachine.followEdgeChain(map, getSeedX(contour), getSeedY(contour))</code>
+	 * @param contour index of the contour
+	 * @return the counter-clockwise outline of the patch
+	 */
+	public ChainCode getContour(final int contour){
+		return contours[contour];
+	}
+
+	/**
+	 * The sweep of the vertex rows from <code>y0</code> up to (but not
+	 * including) <code>y1</code>. Every pixel edge of a boundary is followed in
+	 * both directions (once for the patch on either side), and each direction
+	 * is recorded in exactly one fragment. While an edge has only been seen at
+	 * one of its two vertices, its fragment is kept in a slot:
+	 * <code>2x</code> and <code>2x+1</code> for the upward and downward edges
+	 * between column x-1 and column x, and six more for the edges around the
+	 * current vertex.
+	 */
+	private static final class Band {
+		final IntMap map;
+		final int y0, y1;
+		final List<Contour> closed = new ArrayList<>();
+		final List<Fragment> open = new ArrayList<>();
+		private final Fragment[] slots;
+		/** fragments which are no longer used, kept for reuse */
+		private Fragment spare;
+		/** slots of the horizontal edge on the left, the vertical edge above and the horizontal edge on the right */
+		private final int leftRight, leftLeft, upUp, upDown, rightRight, rightLeft;
+
+		Band(final IntMap map, final int y0, final int y1){
+			this.map = map;
+			this.y0 = y0;
+			this.y1 = y1;
+			final int base = 2 * (map.getWidth() + 1);
+			slots = new Fragment[base + 6];
+			leftRight = base;
+			leftLeft = base + 1;
+			upUp = base + 2;
+			upDown = base + 3;
+			rightRight = base + 4;
+			rightLeft = base + 5;
+		}
+
+		void sweep(){
+			final int w = map.getWidth(), h = map.getHeight();
+			int[] below = new int[w], above = new int[w];
+			if(y0 > 0){
+				// the edges crossing up into this band were recorded by the band
+				// below, so they start as empty fragments that are open at the
+				// lower edge of this band
+				map.getRegion(0, y0 - 1, w, 1, below, 0, w);
+				final int key = crossingKey(w, y0);
+				for(int x = 0; x <= w; x++){
+					final boolean edge = x == 0 || x == w || below[x - 1] != below[x];
+					if(edge && x > 0){
+						final var f = fragment(x, y0);
+						f.headKey = key + 2 * x;
+						f.tailSlot = 2 * x;
+						slots[2 * x] = f;
+						f.openIndex = open.size();
+						open.add(f);
+					}
+					if(edge && x < w){
+						final var f = fragment(x, y0);
+						f.tailKey = key + 2 * x + 1;
+						f.headSlot = 2 * x + 1;
+						slots[2 * x + 1] = f;
+						f.openIndex = open.size();
+						open.add(f);
+					}
+				}
+			}
+			for(int y = y0; y < y1; y++){
+				if(y < h) map.getRegion(0, y, w, 1, above, 0, w);
+				final boolean top = y < h, bottom = y > 0;
+				for(int x = 0; x <= w; x++){
+					final int links;
+					if(top && bottom && x > 0 && x < w){
+						final int ne = above[x], nw = above[x - 1], sw = below[x - 1], se = below[x];
+						// most vertices are inside a patch, with no edges to link
+						if(ne == nw && nw == sw && sw == se) continue;
+						links = LINKS[0b1111 << 6 | pairs(ne, nw, sw, se)];
+					} else {
+						// on the border, the pixels outside the raster are given
+						// values that match neither each other nor the pixels inside
+						final int inside = (x < w && top ? 0b1 : 0) | (x > 0 && top ? 0b10 : 0)
+								| (x > 0 && bottom ? 0b100 : 0) | (x < w && bottom ? 0b1000 : 0);
+						final int ne = (inside & 0b1) != 0 ? above[x] : 0, nw = (inside & 0b10) != 0 ? above[x - 1] : 0,
+								sw = (inside & 0b100) != 0 ? below[x - 1] : 0, se = (inside & 0b1000) != 0 ? below[x] : 0;
+						links = LINKS[inside << 6 | pairs(ne, nw, sw, se) & insidePairs(inside)];
+					}
+					for(int i = 0, n = links & 0b111; i < n; i++){
+						final int in = links >> (3 + 4 * i) & 3, out = links >> (5 + 4 * i) & 3;
+						link(x, y, in, arrivingSlot(x, in), out, leavingSlot(x, out));
+					}
+					move(upUp, 2 * x);
+					move(upDown, 2 * x + 1);
+					move(rightRight, leftRight);
+					move(rightLeft, leftLeft);
+				}
+				final int[] t = below;
+				below = above;
+				above = t;
+			}
+			if(y1 <= h){
+				// the edges crossing up out of this band are left open at its
+				// upper edge
+				final int key = crossingKey(w, y1);
+				for(int x = 0; x <= w; x++){
+					final Fragment up = slots[2 * x], down = slots[2 * x + 1];
+					if(up != null){
+						up.tailSlot = -1;
+						up.tailKey = key + 2 * x;
+						listOpen(up);
+					}
+					if(down != null){
+						down.headSlot = -1;
+						down.headKey = key + 2 * x + 1;
+						listOpen(down);
+					}
+				}
+			}
+			// drop the places of the fragments that were joined into others
+			open.removeIf(f -> f == null);
+			spare = null;
+		}
+
+		private void listOpen(final Fragment f){
+			if(f.openIndex >= 0) return;
+			f.openIndex = open.size();
+			open.add(f);
+		}
+
+		/** a new (or recycled) empty fragment starting at vertex (x,y) */
+		private Fragment fragment(final int x, final int y){
+			final var f = spare;
+			if(f == null) return new Fragment(x, y);
+			spare = f.nextSpare;
+			f.reset(x, y);
+			return f;
+		}
+
+		/** keeps a fragment which is no longer used for reuse */
+		private void recycle(final Fragment f){
+			f.nextSpare = spare;
+			spare = f;
+		}
+
+		private int arrivingSlot(final int x, final int d){
+			switch(d){
+				case UP: return 2 * x;
+				case LEFT: return rightLeft;
+				case DOWN: return upDown;
+				default: return leftRight;
+			}
+		}
+
+		private int leavingSlot(final int x, final int d){
+			switch(d){
+				case UP: return upUp;
+				case LEFT: return leftLeft;
+				case DOWN: return 2 * x + 1;
+				default: return rightRight;
+			}
+		}
+
+		/**
+		 * Links the edge arriving at vertex (x,y) in direction <code>in</code>
+		 * to the edge leaving it in direction <code>out</code>
+		 */
+		private void link(final int x, final int y, final int in, final int inSlot, final int out, final int outSlot){
+			final Fragment a = slots[inSlot], b = slots[outSlot];
+			slots[inSlot] = null;
+			slots[outSlot] = null;
+			if(a != null && b != null){
+				if(a == b){
+					// a fragment closes at the last vertex of the sweep that it
+					// passes, the upper right corner of its patch or hole, which
+					// is rounded by going up and then left around a patch (and
+					// by going right and then down around a hole)
+					if(in == UP) closed.add(Contour.outer(a, map.getWidth()));
+					recycle(a);
+				} else {
+					final Fragment joined = join(a, b);
+					if(joined.headSlot >= 0) slots[joined.headSlot] = joined;
+					if(joined.tailSlot >= 0) slots[joined.tailSlot] = joined;
+				}
+			} else if(a != null){
+				a.append(out);
+				a.tailSlot = outSlot;
+				slots[outSlot] = a;
+			} else if(b != null){
+				b.prepend(in);
+				b.headSlot = inSlot;
+				slots[inSlot] = b;
+			} else {
+				final var f = fragment(x - dx(in), y - dy(in));
+				f.append(in);
+				f.append(out);
+				f.headSlot = inSlot;
+				f.tailSlot = outSlot;
+				slots[inSlot] = f;
+				slots[outSlot] = f;
+			}
+		}
+
+		/** joins fragment <code>b</code> onto the end of fragment <code>a</code>, copying the shorter one */
+		private Fragment join(final Fragment a, final Fragment b){
+			final Fragment kept, dropped;
+			if(a.size() >= b.size()){
+				a.appendAll(b);
+				a.tailSlot = b.tailSlot;
+				a.tailKey = b.tailKey;
+				kept = a;
+				dropped = b;
+			} else {
+				b.prependAll(a);
+				b.headSlot = a.headSlot;
+				b.headKey = a.headKey;
+				kept = b;
+				dropped = a;
+			}
+			// the joined fragment takes over the place of the other in the list
+			// of open fragments
+			if(dropped.openIndex >= 0){
+				if(kept.openIndex < 0){
+					kept.openIndex = dropped.openIndex;
+					open.set(kept.openIndex, kept);
+				} else {
+					open.set(dropped.openIndex, null);
+				}
+			}
+			recycle(dropped);
+			return kept;
+		}
+
+		/** moves the fragment in slot <code>from</code> to slot <code>to</code> */
+		private void move(final int from, final int to){
+			final var f = slots[from];
+			if(f == null) return;
+			slots[from] = null;
+			slots[to] = f;
+			if(f.headSlot == from) f.headSlot = to;
+			if(f.tailSlot == from) f.tailSlot = to;
+		}
+	}
+
+	/** index of the first key of the edges crossing up into vertex row <code>y</code> */
+	private static int crossingKey(final int width, final int y){
+		return 2 * (width + 1) * (y / BAND_HEIGHT);
+	}
+
+	/**
+	 * A piece of a contour: the directions of a run of consecutive steps, with
+	 * room to grow at both ends
+	 */
+	private static final class Fragment {
+		int startX, startY;
+		byte[] steps = new byte[16];
+		int head = 8, tail = 8; // steps[head] up to (not including) steps[tail]
+		/** slot of the open end in the band being swept, or -1 */
+		int headSlot = -1, tailSlot = -1;
+		/** key of the pixel edge crossing between two bands at the open end, or -1 */
+		int headKey = -1, tailKey = -1;
+		/** index in the open fragments of the band, or -1 */
+		int openIndex = -1;
+		/** the next fragment kept for reuse */
+		Fragment nextSpare;
+
+		Fragment(final int startX, final int startY){
+			this.startX = startX;
+			this.startY = startY;
+		}
+
+		void reset(final int startX, final int startY){
+			this.startX = startX;
+			this.startY = startY;
+			head = tail = steps.length / 2;
+			headSlot = tailSlot = headKey = tailKey = openIndex = -1;
+			nextSpare = null;
+		}
+
+		int size(){
+			return tail - head;
+		}
+
+		void append(final int dir){
+			if(tail == steps.length) grow(0, size() + 1);
+			steps[tail++] = (byte) dir;
+		}
+
+		void prepend(final int dir){
+			if(head == 0) grow(size() + 1, 0);
+			steps[--head] = (byte) dir;
+			startX -= dx(dir);
+			startY -= dy(dir);
+		}
+
+		void appendAll(final Fragment other){
+			final int n = other.size();
+			if(tail + n > steps.length) grow(0, n);
+			System.arraycopy(other.steps, other.head, steps, tail, n);
+			tail += n;
+		}
+
+		void prependAll(final Fragment other){
+			final int n = other.size();
+			if(head < n) grow(n, 0);
+			head -= n;
+			System.arraycopy(other.steps, other.head, steps, head, n);
+			startX = other.startX;
+			startY = other.startY;
+		}
+
+		/** reallocates with at least the given room before the head and after the tail */
+		private void grow(final int before, final int after){
+			final int n = size();
+			final int room = Math.max(n, 8);
+			final var bigger = new byte[n + Math.max(before, room) + Math.max(after, room)];
+			final int newHead = Math.max(before, room);
+			System.arraycopy(steps, head, bigger, newHead, n);
+			steps = bigger;
+			head = newHead;
+			tail = newHead + n;
+		}
+	}
+
+	/** A closed outer contour and the seed pixel of its patch */
+	private static final class Contour {
+		final int seed;
+		final ChainCode chain;
+
+		private Contour(final int seed, final ChainCode chain){
+			this.seed = seed;
+			this.chain = chain;
+		}
+
+		/**
+		 * Turns a closed fragment into a contour, if it winds counter-clockwise
+		 * @return the contour, or <code>null</code> if the fragment winds
+		 * clockwise (around a hole)
+		 */
+		static Contour of(final Fragment f, final int width){
+			final byte[] steps = f.steps;
+			long area2 = 0; // twice the signed area (positive if counter-clockwise)
+			int x = f.startX, y = f.startY;
+			for(int i = f.head; i < f.tail; i++){
+				final int d = steps[i];
+				area2 += (long) x * dy(d) - (long) y * dx(d);
+				x += dx(d);
+				y += dy(d);
+			}
+			return area2 > 0 ? outer(f, width) : null;
+		}
+
+		/**
+		 * Turns a closed, counter-clockwise fragment into a contour that starts
+		 * where <code>TraceMachine.followEdgeChain(...)</code> starts: right
+		 * after the lowest (then leftmost) step to the right, which runs along
+		 * the bottom of the first pixel of the patch
+		 */
+		static Contour outer(final Fragment f, final int width){
+			final byte[] steps = f.steps;
+			int x = f.startX, y = f.startY;
+			int last = -1, lastX = 0, lastY = 0;
+			for(int i = f.head; i < f.tail; i++){
+				final int d = steps[i];
+				x += dx(d);
+				y += dy(d);
+				if(d == RIGHT && (last < 0 || y < lastY || (y == lastY && x < lastX))){
+					last = i;
+					lastX = x;
+					lastY = y;
+				}
+			}
+			final int n = f.size();
+			final long[] packed = new long[(n + 31) >>> 5];
+			for(int i = 0, j = last + 1; i < n; i++, j++){
+				if(j == f.tail) j = f.head;
+				packed[i >>> 5] |= (long) steps[j] << ((i & 31) << 1);
+			}
+			return new Contour(lastY * width + lastX - 1, new ChainCode(lastX, lastY, n, packed));
+		}
+	}
+}
@@ -0,0 +1,223 @@
+/*
+MIT License
+
+Copyright (c) 2021 Dr. Christopher C. Hall, aka DrPlantabyte
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package net.plantabyte.drptrace.trace;
+
+import net.plantabyte.drptrace.geometry.ChainCode;
+import net.plantabyte.drptrace.geometry.Vec2;
+import net.plantabyte.drptrace.intmaps.RegionMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import static net.plantabyte.drptrace.geometry.ChainCode.*;
+import static net.plantabyte.drptrace.trace.BoundaryWalker.*;
+
+/**
+ * A <code>HoleIndex</code> lists the inner contours (holes) of every region of
+ * a <code>RegionMap</code>. A hole of region A is a boundary of A that does not
+ * enclose A, but instead encloses one or more other regions. Each hole is
+ * recorded as the steps of a <code>BoundaryWalker</code> walk with A on the
+ * left, which winds clockwise (opposite to the outer contour).
+ * <p>
+ * Every hole contains the seed pixel of at least one enclosed region directly
+ * above a pixel of A (the first pixel of the hole in scan order), so only the
+ * boundaries below region seeds need to be walked, and each of them at most
+ * once.
+ * </p>
+ */
+public final class HoleIndex {
+	private final int[] firstHole;
+	private final List<Hole> holes = new ArrayList<>();
+	
+	private HoleIndex(final int regionCount){
+		firstHole = new int[regionCount];
+		Arrays.fill(firstHole, -1);
+	}
+	
+	/**
+	 * Finds all holes of all regions
+	 * @param regions a labeled raster
+	 * @return the holes of every region in <code>regions</code>
+	 */
+	public static HoleIndex find(final RegionMap regions){
+		final int w = regions.getWidth();
+		final var index = new HoleIndex(regions.getRegionCount());
+		final var walked = new BitSet(w * regions.getHeight()); // by pixel below the edge
+		final int[] lastHole = new int[regions.getRegionCount()];
+		for(int r = 0; r < regions.getRegionCount(); r++){
+			final int x = regions.getSeedX(r), y = regions.getSeedY(r);
+			if(y == 0 || walked.get((y - 1) * w + x)) continue;
+			final int outer = regions.get(x, y - 1);
+			// walk the top edge of the pixel below the seed leftwards, keeping the
+			// outer region on the left
+			final ChainCode chain = walkChain(regions, outer, x, y, LEFT);
+			long area2 = 0; // twice the signed area (positive if counter-clockwise)
+			int enclosed = r;
+			int vx = x, vy = y;
+			for(int i = 0; i < chain.length(); i++){
+				final int d = chain.getStep(i);
+				if(d == LEFT) walked.set((vy - 1) * w + vx - 1);
+				area2 += (long) vx * dy(d) - (long) vy * dx(d);
+				if(enclosed >= 0){
+					final int rx = rightX(vx, d), ry = rightY(vy, d);
+					if(!regions.isInRange(rx, ry) || regions.get(rx, ry) != enclosed) enclosed = -1;
+				}
+				vx += dx(d);
+				vy += dy(d);
+			}
+			if(area2 >= 0) continue; // outer contour, not a hole
+			final int h = index.holes.size();
+			index.holes.add(new Hole(outer, chain, enclosed));
+			if(index.firstHole[outer] < 0){
+				index.firstHole[outer] = h;
+			} else {
+				index.holes.get(lastHole[outer]).next = h;
+			}
+			lastHole[outer] = h;
+		}
+		return index;
+	}
+	
+	/**
+	 * Gets the total number of holes
+	 * @return number of holes in all regions
+	 */
+	public int getHoleCount(){
+		return holes.size();
+	}
+	
+	/**
+	 * Gets the first hole of a region. Iterate over all holes of region
+	 * <code>r</code> with
+	 * <code>for(int h = getFirstHole(r); h &gt;= 0; h = getNextHole(h))</code>
+	 * @param region region label
+	 * @return the index of the first hole, or -1 if the region has no holes
+	 */
+	public int getFirstHole(final int region){
+		return firstHole[region];
+	}
+	
+	/**
+	 * Gets the next hole of the same region
+	 * @param hole index of a hole
+	 * @return the index of the next hole, or -1 if there are no more holes
+	 */
+	public int getNextHole(final int hole){
+		return holes.get(hole).next;
+	}
+	
+	/**
+	 * Gets the region which has the given hole
+	 * @param hole index of a hole
+	 * @return region label
+	 */
+	public int getRegion(final int hole){
+		return holes.get(hole).region;
+	}
+	
+	/**
+	 * Gets the X coordinate of the vertex where the walk around the hole starts
+	 * @param hole index of a hole
+	 * @return X coordinate of the starting vertex
+	 */
+	public int getStartX(final int hole){
+		return holes.get(hole).chain.getStartX();
+	}
+	
+	/**
+	 * Gets the Y coordinate of the vertex where the walk around the hole starts
+	 * @param hole index of a hole
+	 * @return Y coordinate of the starting vertex
+	 */
+	public int getStartY(final int hole){
+		return holes.get(hole).chain.getStartY();
+	}
+	
+	/**
+	 * Gets the steps of the walk around the hole, as returned by
+	 * <code>BoundaryWalker.walk(...)</code>
+	 * @param hole index of a hole
+	 * @return step directions
+	 */
+	public byte[] getSteps(final int hole){
+		return holes.get(hole).chain.toSteps();
+	}
+	
+	/**
+	 * Gets the walk around the hole as a chain code
+	 * @param hole index of a hole
+	 * @return the contour of the hole, starting at
+	 * (<code>getStartX(hole)</code>,<code>getStartY(hole)</code>)
+	 */
+	public ChainCode getChainCode(final int hole){
+		return holes.get(hole).chain;
+	}
+	
+	/**
+	 * If every pixel just inside the contour of the hole (on the right of each
+	 * step) belongs to the same region, then the contour of the hole is exactly
+	 * the outer contour of that region (in the opposite direction). That region
+	 * may in turn have holes of its own holding other regions.
+	 * @param hole index of a hole
+	 * @return the label of the region lining the whole contour of the hole, or
+	 * -1 if the contour borders more than one region
+	 */
+	public int getEnclosedRegion(final int hole){
+		return holes.get(hole).enclosed;
+	}
+	
+	/**
+	 * Gets the midpoints of the pixel edges around the hole, which is the same
+	 * kind of path that <code>TraceMachine</code> produces for outer contours.
+	 * @param hole index of a hole
+	 * @return points along the hole contour
+	 */
+	public Vec2[] getHolePoints(final int hole){
+		return holes.get(hole).chain.toPoints();
+	}
+	
+	/** X coordinate of the pixel on the right of a step */
+	private static int rightX(final int x, final int dir){
+		return dir == UP || dir == RIGHT ? x : x - 1;
+	}
+	
+	/** Y coordinate of the pixel on the right of a step */
+	private static int rightY(final int y, final int dir){
+		return dir == UP || dir == LEFT ? y : y - 1;
+	}
+	
+	private static final class Hole {
+		final int region;
+		final ChainCode chain;
+		final int enclosed;
+		int next = -1;
+		Hole(int region, ChainCode chain, int enclosed){
+			this.region = region;
+			this.chain = chain;
+			this.enclosed = enclosed;
+		}
+	}
+}